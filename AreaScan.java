@@ -0,0 +1,230 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/*
+ *  Finds unsatisfied actors for a neighbourhood of any radius, with the
+ *  edges clipped (as Neighbours.isSatisfied) or wrapped around (torus).
+ *
+ *  Uses a summed-area table per colour: reds[(row + 1) * (size + 1) + col + 1]
+ *  is the number of red actors in rows 0..row and cols 0..col, so the
+ *  number in any rectangle takes 4 lookups. The neighbours of a cell are
+ *  its (2 * radius + 1)^2 square minus itself, so a cell costs the same
+ *  for radius 1 and radius 20 (on a torus up to 4 rectangles).
+ *
+ *  The tables are rebuilt when the world has changed (Simulation says so
+ *  after a tick with moves), so the scan and the segregation of the same
+ *  world share one build: first the sums along each row (rows in
+ *  parallel), then down each column (bands of columns in parallel).
+ *  The scan then goes in bands of rows as ParallelScan, and gives the
+ *  same result (in row order) for radius 1 without wrap.
+ *
+ *  The two tables are int arrays of (size + 1)^2, 8 bytes per cell, so
+ *  the world is at most MAX_SIZE (46339) a side.
+ */
+public class AreaScan {
+
+    final Grid world;
+    final int size;
+    final int radius;
+    final boolean torus;
+    final int stride;      // size + 1, row 0 and col 0 of the tables are 0
+    final int[] reds;
+    final int[] blues;
+    boolean stale = true;  // The world changed since the tables were built
+
+    static final int MAX_SIZE = (int) Math.sqrt(Integer.MAX_VALUE - 8) - 1;
+
+    public AreaScan(Grid world, int radius, boolean torus) {
+        if (radius < 1) {
+            throw new IllegalArgumentException("Radius must be at least 1");
+        }
+        if (torus && 2 * radius + 1 > world.size()) {
+            throw new IllegalArgumentException("Neighbourhood wider than the world");
+        }
+        long length = (long) (world.size() + 1) * (world.size() + 1);
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("World too big for AreaScan: " + world.size()
+                    + " a side, at most " + MAX_SIZE);
+        }
+        this.world = world;
+        this.size = world.size();
+        this.radius = radius;
+        this.torus = torus;
+        this.stride = size + 1;
+        this.reds = new int[(int) length];
+        this.blues = new int[(int) length];
+    }
+
+    // Flat indices of all unsatisfied actors, in row order
+    public int[] unsatisfied(double threshold, ForkJoinPool pool) {
+        build(pool);
+        return pool.invoke(new Band(threshold, 0, size));
+    }
+
+    // The world has changed, the tables must be built again before use
+    void worldChanged() {
+        stale = true;
+    }
+
+    // Rebuild the tables from the world, if it has changed
+    void build(ForkJoinPool pool) {
+        if (!stale) {
+            return;
+        }
+        pool.submit(() -> IntStream.range(0, size).parallel().forEach(row -> {
+            int red = 0, blue = 0;
+            int t = (row + 1) * stride + 1;
+            for (int col = 0; col < size; col++) {
+                byte actor = world.get(row, col);
+                if (actor == Grid.RED) {
+                    red++;
+                } else if (actor == Grid.BLUE) {
+                    blue++;
+                }
+                reds[t + col] = red;
+                blues[t + col] = blue;
+            }
+        })).join();
+        // Down the columns, row by row within a band so memory is read in order
+        int bands = Math.max(1, Math.min(size / 64, 4 * pool.getParallelism()));
+        pool.submit(() -> IntStream.range(0, bands).parallel().forEach(band -> {
+            int from = 1 + (int) ((long) size * band / bands);
+            int to = 1 + (int) ((long) size * (band + 1) / bands);
+            for (int row = 2; row <= size; row++) {
+                int t = row * stride;
+                for (int col = from; col < to; col++) {
+                    reds[t + col] += reds[t - stride + col];
+                    blues[t + col] += blues[t - stride + col];
+                }
+            }
+        })).join();
+        stale = false;
+    }
+
+    // Number in rows [r0, r1) and cols [c0, c1), all within the world
+    int rect(int[] table, int r0, int r1, int c0, int c1) {
+        return table[r1 * stride + c1] - table[r0 * stride + c1]
+                - table[r1 * stride + c0] + table[r0 * stride + c0];
+    }
+
+    // Number in the square around (row, col), the cell itself included
+    int window(int[] table, int row, int col) {
+        if (!torus) {
+            return rect(table, Math.max(0, row - radius), Math.min(size, row + radius + 1),
+                    Math.max(0, col - radius), Math.min(size, col + radius + 1));
+        }
+        return wrapped(table, row - radius, row + radius + 1, col - radius, col + radius + 1);
+    }
+
+    // As rect(), but the rows and cols may go one world size outside and wrap around
+    int wrapped(int[] table, int r0, int r1, int c0, int c1) {
+        if (r0 < 0) {
+            return wrapped(table, r0 + size, size, c0, c1) + wrapped(table, 0, r1, c0, c1);
+        }
+        if (r1 > size) {
+            return wrapped(table, r0, size, c0, c1) + wrapped(table, 0, r1 - size, c0, c1);
+        }
+        if (c0 < 0) {
+            return wrapped(table, r0, r1, c0 + size, size) + wrapped(table, r0, r1, 0, c1);
+        }
+        if (c1 > size) {
+            return wrapped(table, r0, r1, c0, size) + wrapped(table, r0, r1, 0, c1 - size);
+        }
+        return rect(table, r0, r1, c0, c1);
+    }
+
+    // Mean share of same colour neighbours, over actors with any neighbours
+    // Bands of rows in parallel, as many on any machine so the sum is the same
+    public double segregation(ForkJoinPool pool) {
+        build(pool);
+        int bands = Math.max(1, Math.min(size / 64, 64));
+        double[] sums = new double[bands];
+        long[] counts = new long[bands];
+        pool.submit(() -> IntStream.range(0, bands).parallel().forEach(band -> {
+            double sum = 0;
+            long n = 0;
+            int to = (int) ((long) size * (band + 1) / bands);
+            for (int row = (int) ((long) size * band / bands); row < to; row++) {
+                for (int col = 0; col < size; col++) {
+                    byte actor = world.get(row, col);
+                    if (actor == Grid.NONE) {
+                        continue;
+                    }
+                    int red = window(reds, row, col);
+                    int blue = window(blues, row, col);
+                    int occupied = red + blue - 1;
+                    int same = (actor == Grid.RED ? red : blue) - 1;
+                    if (occupied > 0) {
+                        sum += same / (double) occupied;
+                        n++;
+                    }
+                }
+            }
+            sums[band] = sum;
+            counts[band] = n;
+        })).join();
+        double sum = 0;
+        long actors = 0;
+        for (int band = 0; band < bands; band++) {
+            sum += sums[band];
+            actors += counts[band];
+        }
+        return actors == 0 ? 0 : sum / actors;
+    }
+
+    // Scans rows [fromRow, toRow), split as ParallelScan
+    class Band extends RecursiveTask<int[]> {
+        final double threshold;
+        final int fromRow;
+        final int toRow;
+
+        Band(double threshold, int fromRow, int toRow) {
+            this.threshold = threshold;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected int[] compute() {
+            if ((long) (toRow - fromRow) * size <= ParallelScan.MIN_CELLS || toRow - fromRow < 2) {
+                return scan();
+            }
+            int mid = (fromRow + toRow) >>> 1;
+            Band top = new Band(threshold, fromRow, mid);
+            top.fork();
+            int[] b = new Band(threshold, mid, toRow).compute();
+            int[] a = top.join();
+            int[] all = Arrays.copyOf(a, a.length + b.length);
+            System.arraycopy(b, 0, all, a.length, b.length);
+            return all;
+        }
+
+        int[] scan() {
+            int[] found = new int[64];
+            int n = 0;
+            for (int row = fromRow; row < toRow; row++) {
+                for (int col = 0; col < size; col++) {
+                    byte actor = world.get(row, col);
+                    if (actor == Grid.NONE) {
+                        continue;
+                    }
+                    // Minus the actor itself
+                    int red = window(reds, row, col);
+                    int blue = window(blues, row, col);
+                    int occupied = red + blue - 1;
+                    int same = (actor == Grid.RED ? red : blue) - 1;
+                    // Same rule as Neighbours.isSatisfied
+                    if (occupied > 0 && same / (double) occupied < threshold) {
+                        if (n == found.length) {
+                            found = Arrays.copyOf(found, 2 * n);
+                        }
+                        found[n++] = row * size + col;
+                    }
+                }
+            }
+            return Arrays.copyOf(found, n);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package calc;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static calc.Calculator.DIV_BY_ZERO;
+import static calc.Rpn.*;
+
+/*
+ *  Evaluates one expression for many rows of input given as columns,
+ *  one double[] per variable (see Expression.evalColumns).
+ *
+ *  The rows are taken in chunks. For each chunk the postfix program is run
+ *  one op at a time over whole arrays, so every op is a simple loop like
+ *  d[i] = a[i] + b[i], which the JIT turns into SIMD code.
+ *  Variables are read straight from the columns, numbers are kept as
+ *  scalars (no array filled with the same value).
+ *
+ *  If any row divides by 0 the whole batch fails with DIV_BY_ZERO.
+ */
+class BatchEval {
+
+    static final int CHUNK = 1024;               // Rows at a time, small enough for the L1/L2 cache
+    static final int PARALLEL_ROWS = 1 << 16;    // Split over cores above this
+
+    // The stack of a chunk: a slot is a scalar or rows [off, off + n) of an array
+    final double[][] regs;       // Own buffer per slot
+    final double[][] arrays;
+    final int[] offsets;
+    final double[] scalars;
+    final boolean[] isScalar;
+
+    BatchEval(int depth) {
+        regs = new double[depth][CHUNK];
+        arrays = new double[depth][];
+        offsets = new int[depth];
+        scalars = new double[depth];
+        isScalar = new boolean[depth];
+    }
+
+    static void eval(Expression e, double[][] columns, double[] out, boolean parallel) {
+        int rows = out.length;
+        if (!parallel || rows < PARALLEL_ROWS) {
+            new BatchEval(e.maxDepth).rows(e, columns, out, 0, rows);
+            return;
+        }
+        // A few slices per core so uneven speed evens out
+        int slices = 4 * ForkJoinPool.getCommonPoolParallelism();
+        int chunks = (rows + CHUNK - 1) / CHUNK;
+        int chunksPerSlice = (chunks + slices - 1) / slices;
+        IntStream.range(0, slices).parallel().forEach(slice -> {
+            int from = Math.min(rows, slice * chunksPerSlice * CHUNK);
+            int to = Math.min(rows, from + chunksPerSlice * CHUNK);
+            if (from < to) {
+                new BatchEval(e.maxDepth).rows(e, columns, out, from, to);
+            }
+        });
+    }
+
+    void rows(Expression e, double[][] columns, double[] out, int from, int to) {
+        for (int start = from; start < to; start += CHUNK) {
+            chunk(e.ops, e.values, columns, out, start, Math.min(CHUNK, to - start));
+        }
+    }
+
+    void chunk(byte[] ops, double[] values, double[][] columns, double[] out, int from, int n) {
+        int sp = 0;
+        for (int i = 0; i < ops.length; i++) {
+            byte op = ops[i];
+            if (op == NUM) {
+                isScalar[sp] = true;
+                scalars[sp++] = values[i];
+                continue;
+            }
+            if (op == VAR) {
+                isScalar[sp] = false;
+                arrays[sp] = columns[(int) values[i]];
+                offsets[sp++] = from;
+                continue;
+            }
+            int b = --sp;       // Right operand
+            int a = sp - 1;     // Left operand, result goes here
+            if (isScalar[a] && isScalar[b]) {
+                scalars[a] = Rpn.apply(op, scalars[b], scalars[a]);
+                continue;
+            }
+            if (isScalar[a]) {
+                // Rare (like "2 - x"), make the left one an array
+                Arrays.fill(regs[a], 0, n, scalars[a]);
+                arrays[a] = regs[a];
+                offsets[a] = 0;
+                isScalar[a] = false;
+            }
+            double[] d = regs[a];
+            if (isScalar[b]) {
+                apply(op, arrays[a], offsets[a], scalars[b], d, n);
+            } else {
+                apply(op, arrays[a], offsets[a], arrays[b], offsets[b], d, n);
+            }
+            arrays[a] = d;
+            offsets[a] = 0;
+        }
+        if (isScalar[0]) {
+            Arrays.fill(out, from, from + n, scalars[0]);
+        } else {
+            System.arraycopy(arrays[0], offsets[0], out, from, n);
+        }
+    }
+
+    // d[i] = a[ao + i] op b[bo + i]
+    static void apply(byte op, double[] a, int ao, double[] b, int bo, double[] d, int n) {
+        switch (op) {
+            case ADD:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] + b[bo + i];
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] - b[bo + i];
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] * b[bo + i];
+                }
+                break;
+            case DIV:
+                for (int i = 0; i < n; i++) {
+                    if (b[bo + i] == 0) {
+                        throw new IllegalArgumentException(DIV_BY_ZERO);
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] / b[bo + i];
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.pow(a[ao + i], b[bo + i]);
+                }
+        }
+    }
+
+    // d[i] = a[ao + i] op c
+    static void apply(byte op, double[] a, int ao, double c, double[] d, int n) {
+        switch (op) {
+            case ADD:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] + c;
+                }
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] - c;
+                }
+                break;
+            case MUL:
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] * c;
+                }
+                break;
+            case DIV:
+                if (c == 0) {
+                    throw new IllegalArgumentException(DIV_BY_ZERO);
+                }
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] / c;
+                }
+                break;
+            default:
+                if (c == 2) {
+                    // As Node.Square, exactly pow(x, 2)
+                    for (int i = 0; i < n; i++) {
+                        d[i] = a[ao + i] * a[ao + i];
+                    }
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        d[i] = Math.pow(a[ao + i], c);
+                    }
+                }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+ *  Finds unsatisfied actors 64 cells at a time, as fast Game of Life
+ *  programs do.
+ *
+ *  The world is copied into two bit planes, reds and blues, one bit per
+ *  cell in flat index order (cell i is bit i & 63 of word i >>> 6). For a
+ *  word of 64 cells the 8 neighbours are the planes read 1, size - 1,
+ *  size and size + 1 bits away (with the bits that wrapped around from
+ *  the other end of a row masked off, so the edges are clipped). These
+ *  are added with bit-sliced adders: bit k of the counts of all 64 cells
+ *  in one long. The threshold test is done on the bit-sliced counts too
+ *  and gives a mask of the unsatisfied actors in the word.
+ *
+ *  The planes are rebuilt each tick (from a PackedGrid 32 cells at a
+ *  time), then bands of words are scanned in parallel. The result is the
+ *  same as ParallelScan, in row order.
+ */
+public class BitboardScan {
+
+    final Grid world;
+    final int size;
+    final int cells;
+    final long[] reds;
+    final long[] blues;
+
+    public BitboardScan(Grid world) {
+        this.world = world;
+        this.size = world.size();
+        this.cells = world.cells();
+        this.reds = new long[(cells + 63) >>> 6];
+        this.blues = new long[reds.length];
+    }
+
+    // Flat indices of all unsatisfied actors, in row order
+    public int[] unsatisfied(double threshold, ForkJoinPool pool) {
+        build(pool);
+        int[] minSame = minSame(threshold);
+        int bands = Math.max(1, Math.min(reds.length / 512, 4 * pool.getParallelism()));
+        int[][] found = pool.submit(() -> IntStream.range(0, bands).parallel()
+                .mapToObj(band -> scan(minSame, (int) ((long) reds.length * band / bands),
+                        (int) ((long) reds.length * (band + 1) / bands)))
+                .toArray(int[][]::new)).join();
+        int n = 0;
+        for (int[] f : found) {
+            n += f.length;
+        }
+        int[] all = new int[n];
+        n = 0;
+        for (int[] f : found) {
+            System.arraycopy(f, 0, all, n, f.length);
+            n += f.length;
+        }
+        return all;
+    }
+
+    // minSame[occupied]: fewest same colour neighbours to be satisfied (from ParallelScan's table)
+    static int[] minSame(double threshold) {
+        boolean[] satisfied = ParallelScan.satisfiedTable(threshold);
+        int[] minSame = new int[9];
+        for (int occupied = 1; occupied <= 8; occupied++) {
+            int same = 0;
+            while (same <= occupied && !satisfied[same * 9 + occupied]) {
+                same++;
+            }
+            minSame[occupied] = same;
+        }
+        return minSame;
+    }
+
+    // ---------- Bit planes -----------------------
+
+    // Rebuild the planes from the world
+    void build(ForkJoinPool pool) {
+        pool.submit(() -> IntStream.range(0, reds.length).parallel().forEach(this::buildWord)).join();
+    }
+
+    void buildWord(int w) {
+        int from = w << 6;
+        int to = Math.min(cells, from + 64);
+        long red = 0, blue = 0;
+        if (world instanceof PackedGrid) {
+            // Two words of 32 cells, 2 bits each: RED is 01, BLUE is 10
+            long[] words = ((PackedGrid) world).words;
+            for (int k = 0; k < 2 && 2 * w + k < words.length; k++) {
+                long cell = words[2 * w + k];
+                red |= evenBits(cell & ~(cell >>> 1)) << (32 * k);
+                blue |= evenBits(cell >>> 1 & ~cell) << (32 * k);
+            }
+        } else if (world instanceof ByteGrid) {
+            byte[] bytes = ((ByteGrid) world).cells;
+            for (int i = from; i < to; i++) {
+                red |= (long) (bytes[i] & Grid.RED) << (i - from);
+                blue |= (long) ((bytes[i] & Grid.BLUE) >>> 1) << (i - from);
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                byte actor = world.get(i);
+                red |= (actor == Grid.RED ? 1L : 0) << (i - from);
+                blue |= (actor == Grid.BLUE ? 1L : 0) << (i - from);
+            }
+        }
+        reds[w] = red;
+        blues[w] = blue;
+    }
+
+    // Bits 0, 2, 4 .. 62 moved to bits 0 .. 31
+    static long evenBits(long x) {
+        x &= 0x5555_5555_5555_5555L;
+        x = (x | x >>> 1) & 0x3333_3333_3333_3333L;
+        x = (x | x >>> 2) & 0x0F0F_0F0F_0F0F_0F0FL;
+        x = (x | x >>> 4) & 0x00FF_00FF_00FF_00FFL;
+        x = (x | x >>> 8) & 0x0000_FFFF_0000_FFFFL;
+        return (x | x >>> 16) & 0xFFFF_FFFFL;
+    }
+
+    // The 64 bits of the plane from bit 'start' on, 0 outside the world
+    static long bits(long[] plane, long start) {
+        int w = (int) (start >> 6);
+        int shift = (int) (start & 63);
+        long low = word(plane, w) >>> shift;
+        return shift == 0 ? low : low | word(plane, w + 1) << (64 - shift);
+    }
+
+    static long word(long[] plane, int w) {
+        return w >= 0 && w < plane.length ? plane[w] : 0;
+    }
+
+    // Bits of the cells in word w that are in column col
+    long column(int w, int col) {
+        long base = (long) w << 6;
+        long mask = 0;
+        for (long i = (base - col + size - 1) / size * size + col; i < base + 64; i += size) {
+            mask |= 1L << (i - base);
+        }
+        return mask;
+    }
+
+    // ---------- Bit-sliced arithmetic -----------------------
+
+    // Number of neighbours in the plane of the 64 cells from base, bit k in count[k]
+    void count(long[] plane, long base, long notFirst, long notLast, long[] count) {
+        long a = bits(plane, base - size - 1) & notFirst;
+        long b = bits(plane, base - size);
+        long c = bits(plane, base - size + 1) & notLast;
+        long d = bits(plane, base - 1) & notFirst;
+        long e = bits(plane, base + 1) & notLast;
+        long f = bits(plane, base + size - 1) & notFirst;
+        long g = bits(plane, base + size);
+        long h = bits(plane, base + size + 1) & notLast;
+        // Full adders in three groups, all sums have weight 1 and all carries weight 2
+        long ab = a ^ b, s1 = ab ^ c, c1 = (a & b) | (c & ab);
+        long de = d ^ e, s2 = de ^ f, c2 = (d & e) | (f & de);
+        long s3 = g ^ h, c3 = g & h;
+        long s12 = s1 ^ s2, c4 = (s1 & s2) | (s3 & s12);
+        count[0] = s12 ^ s3;
+        // Four carries of weight 2
+        long c12 = c1 ^ c2, t = c12 ^ c3, k1 = (c1 & c2) | (c3 & c12);
+        count[1] = t ^ c4;
+        long k2 = t & c4;
+        // Two of weight 4
+        count[2] = k1 ^ k2;
+        count[3] = k1 & k2;
+    }
+
+    // sum = x + y (at most 8, so it fits in 4 bits)
+    static void add(long[] x, long[] y, long[] sum) {
+        long carry = 0;
+        for (int k = 0; k < 4; k++) {
+            long xy = x[k] ^ y[k];
+            sum[k] = xy ^ carry;
+            carry = (x[k] & y[k]) | (carry & xy);
+        }
+    }
+
+    // Cells where the count is v
+    static long equal(long[] count, int v) {
+        long eq = -1;
+        for (int k = 0; k < 4; k++) {
+            eq &= (v >>> k & 1) != 0 ? count[k] : ~count[k];
+        }
+        return eq;
+    }
+
+    // Cells where the count is less than v, from the highest bit down
+    static long less(long[] count, int v) {
+        long lt = 0;
+        long eq = -1;
+        for (int k = 3; k >= 0; k--) {
+            if ((v >>> k & 1) != 0) {
+                lt |= eq & ~count[k];
+                eq &= count[k];
+            } else {
+                eq &= ~count[k];
+            }
+        }
+        return v > 15 ? -1 : lt;
+    }
+
+    // ---------- Scan -----------------------
+
+    // Unsatisfied actors in words [from, to)
+    int[] scan(int[] minSame, int from, int to) {
+        long[] red = new long[4];
+        long[] blue = new long[4];
+        long[] occupied = new long[4];
+        int[] found = new int[64];
+        int n = 0;
+        for (int w = from; w < to; w++) {
+            if ((reds[w] | blues[w]) == 0) {
+                continue;
+            }
+            long base = (long) w << 6;
+            long notFirst = ~column(w, 0);
+            long notLast = ~column(w, size - 1);
+            count(reds, base, notFirst, notLast, red);
+            count(blues, base, notFirst, notLast, blue);
+            add(red, blue, occupied);
+            // Unsatisfied if, for its number of neighbours, too few are the same colour
+            long bad = 0;
+            for (int o = 1; o <= 8; o++) {
+                long eq = equal(occupied, o);
+                if (eq == 0 || minSame[o] == 0) {
+                    continue;
+                }
+                bad |= eq & ((reds[w] & less(red, minSame[o])) | (blues[w] & less(blue, minSame[o])));
+            }
+            if (n + Long.bitCount(bad) > found.length) {
+                found = Arrays.copyOf(found, 2 * found.length + 64);
+            }
+            while (bad != 0) {
+                found[n++] = (int) base + Long.numberOfTrailingZeros(bad);
+                bad &= bad - 1;
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Grid with one byte per cell, laid out row-major in a single array.
+ */
+public class ByteGrid implements Grid {
+
+    final int size;
+    final byte[] cells;
+
+    public ByteGrid(int size) {
+        if ((long) size * size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("World too big: " + size);
+        }
+        this.size = size;
+        this.cells = new byte[size * size];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte get(int index) {
+        return cells[index];
+    }
+
+    @Override
+    public void set(int index, byte cell) {
+        cells[index] = cell;
+    }
+
+    @Override
+    public byte get(int row, int col) {
+        return cells[row * size + col];
+    }
+
+    @Override
+    public void set(int row, int col, byte cell) {
+        cells[row * size + col] = cell;
+    }
+
+    @Override
+    public long bytes() {
+        return cells.length;
+    }
+}
@@ -0,0 +1,188 @@
+package calc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+/*
+ *  Calculator workloads for the JMH benchmarks in src/jmh/java/calc/CalcBench
+ *  (Calculator itself is not public).
+ *
+ *  Each instance holds one random expression with about nTokens tokens,
+ *  using numbers 1-99, and formulas of the same length in x and y for the
+ *  compiled benchmarks. A random text can divide by 0, like "5 / (3 - 3)":
+ *  the shared texts and the formulas skip those, the seed CalcBench uses gives
+ *  an expression that doesn't.
+ */
+public class CalcBenchmarks {
+
+    final Calculator calc = new Calculator();
+    public final String expr;
+    final List<String> tokens;
+    final List<String> postfix;
+    final Rpn rpn = new Rpn();
+
+    // The compiled benchmarks use a formula in x and y, a new row of values
+    // per call, so folding can't turn the whole formula into one number
+    static final int VAR_ROWS = 1024;
+    static final String[] XY = {"x", "y"};
+    public final String exprVars;
+    final Expression compiled;      // Simplified, as compile() gives
+    final Node unfolded;            // The same program, one plain node per operator
+    final byte[] program;           // The same program, not simplified, for Rpn.run
+    final double[] programValues;
+    final double[] stack;
+    final double[] vars = new double[2];
+    int row;
+
+    // Column input for the variables benchmarks
+    static final int ROWS = 100_000;
+    final Expression withVars = calc.compile("(x + 2) * y - x / 4 + y * y - 3", "x", "y");
+    final double[][] columns = new double[2][ROWS];
+    final double[] out = new double[ROWS];
+
+    // Texts used by many threads at once, a few so they spread over the cache
+    static final int SHARED = 64;
+    final String[] sharedTexts = new String[SHARED];
+    final Expression[] sharedCompiled = new Expression[SHARED];   // Formulas in x and y
+
+    public CalcBenchmarks(int nTokens, long seed) {
+        expr = RandomExpressions.expression(nTokens, new Random(seed));
+        tokens = calc.tokenize(expr);
+        postfix = calc.infix2Postfix(tokens);
+        Random rand = new Random(seed);
+        for (int i = 0; i < ROWS; i++) {
+            columns[0][i] = rand.nextDouble();
+            columns[1][i] = rand.nextDouble();
+        }
+        exprVars = varExpression(nTokens, rand);
+        compiled = calc.compile(exprVars, XY);
+        Rpn plain = new Rpn();
+        plain.compile(exprVars, 0, exprVars.length(), XY);
+        program = Arrays.copyOf(plain.ops, plain.length);
+        programValues = Arrays.copyOf(plain.values, plain.length);
+        stack = new double[plain.maxDepth];
+        unfolded = Node.build(program, programValues, false);
+        List<String> texts = new ArrayList<>();
+        while (texts.size() < SHARED) {
+            String text = RandomExpressions.expression(nTokens, rand);
+            try {
+                calc.eval(text);
+                texts.add(text);
+            } catch (IllegalArgumentException e) {
+                // Like "5 / (3 - 3)"
+            }
+        }
+        for (int i = 0; i < SHARED; i++) {
+            sharedTexts[i] = texts.get(i);
+            sharedCompiled[i] = ConcurrentCalculator.compile(varExpression(nTokens, rand), XY);
+        }
+    }
+
+    public Object tokenize() {
+        return calc.tokenize(expr);
+    }
+
+    public Object infix2Postfix() {
+        return calc.infix2Postfix(tokens);
+    }
+
+    public double evalPostfix() {
+        return calc.evalPostfix(postfix);
+    }
+
+    // Goes through the cache
+    public double eval() {
+        return calc.eval(expr);
+    }
+
+    // What eval did before the cache
+    public double parseAndEval() {
+        return calc.evalPostfix(calc.infix2Postfix(calc.tokenize(expr)));
+    }
+
+    // Next row of x and y
+    void nextRow() {
+        row = (row + 1) & (VAR_ROWS - 1);
+        vars[0] = columns[0][row];
+        vars[1] = columns[1][row];
+    }
+
+    public double compiled() {
+        nextRow();
+        return compiled.eval(vars);
+    }
+
+    // What the simplification gains
+    public double compiledUnfolded() {
+        nextRow();
+        return unfolded.eval(vars);
+    }
+
+    // The postfix program run on a stack, what the tree gains
+    public double rpnRun() {
+        nextRow();
+        return Rpn.run(program, programValues, program.length, stack, vars);
+    }
+
+    // Parse and evaluate without Strings or boxing
+    public double rpn() {
+        return rpn.eval(expr);
+    }
+
+    // ROWS rows, one eval per row
+    public Object rowByRow() {
+        for (int i = 0; i < ROWS; i++) {
+            out[i] = withVars.eval(columns[0][i], columns[1][i]);
+        }
+        return out;
+    }
+
+    // ROWS rows in one batch
+    public Object columns(boolean parallel) {
+        withVars.evalColumns(columns, out, parallel);
+        return out;
+    }
+
+    // Ops for one thread each (own position in the texts), the data is shared
+
+    public DoubleSupplier sharedEval() {
+        int[] i = {0};
+        return () -> ConcurrentCalculator.eval(sharedTexts[i[0]++ & (SHARED - 1)]);
+    }
+
+    // The values of x and y go in the thread's own array
+    public DoubleSupplier sharedCompiled() {
+        int[] i = {0};
+        double[] own = new double[2];
+        return () -> {
+            int k = i[0]++;
+            own[0] = columns[0][k & (VAR_ROWS - 1)];
+            own[1] = columns[1][k & (VAR_ROWS - 1)];
+            return sharedCompiled[k & (SHARED - 1)].eval(own);
+        };
+    }
+
+    public DoubleSupplier sharedUncached() {
+        int[] i = {0};
+        return () -> ConcurrentCalculator.evalUncached(sharedTexts[i[0]++ & (SHARED - 1)]);
+    }
+
+    // A formula in x and y that has a value (no division by 0) for the first VAR_ROWS rows
+    String varExpression(int nTokens, Random rand) {
+        while (true) {
+            String text = RandomExpressions.expression(nTokens, rand, XY);
+            try {
+                Expression e = calc.compile(text, XY);
+                for (int i = 0; i < VAR_ROWS; i++) {
+                    e.eval(columns[0][i], columns[1][i]);
+                }
+                return text;
+            } catch (IllegalArgumentException e) {
+                // Like "x / (x - x)"
+            }
+        }
+    }
+}
@@ -27,14 +27,29 @@ class Calculator {
     // Definition of operators
     final static String OPERATORS = "+-*/^";
 
+    // Compiled expressions shared by all Calculators (the same formulas come back a lot)
+    final static ExpressionCache CACHE = new ExpressionCache(4096);
+
+    // A Calculator has no state of its own, so eval() and compile() may be
+    // called by many threads at once (see ConcurrentCalculator)
+
     // Method used in REPL
     double eval(String expr) {
         if (expr.length() == 0) {
             return NaN;
         }
-        List<String> tokens = tokenize(expr);
-        List<String> postfix = infix2Postfix(tokens);
-        return evalPostfix(postfix);
+        return CACHE.get(expr, this::compile).eval();
+    }
+
+    // Parse once, evaluate many times (same errors as tokenize/infix2Postfix/evalPostfix).
+    // Names in variables may be used in expr, values are given to Expression.eval
+    public Expression compile(String expr, String... variables) {
+        if (expr.length() == 0) {
+            return new Expression(expr, variables.clone(), null, null, 0);
+        }
+        Rpn rpn = Rpn.local();
+        rpn.compile(expr, 0, expr.length(), variables);
+        return rpn.toExpression(expr, variables);
     }
 
     // ------  Evaluate RPN expression -------------------
@@ -0,0 +1,260 @@
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ *  Saves a Simulation to a file and loads it back, to continue long runs.
+ *
+ *  File layout (little endian, written and read through a mapped buffer):
+ *    int MAGIC, int VERSION, int size, int scan, int radius, int torus
+ *    long tick, double threshold
+ *    long metricsBytes: length of the metrics file (Headless out) as of this tick
+ *    int n, n bytes: the Random, serialized (its seed)
+ *    0-7 bytes padding, so the cells start at a multiple of 8
+ *    the cells, 2 bits each, 32 per long (the same as PackedGrid.words)
+ *  A world of 10^8 cells is 25 MB, for a PackedGrid a plain copy.
+ *
+ *  A checkpoint is a snapshot (of()), taken between ticks, and written
+ *  later (write()), so the writing can be done on another thread
+ *  (see Periodic). It's written to a temporary file, forced to the disk
+ *  and then renamed, so a crash or power loss while writing leaves the
+ *  last checkpoint as it was.
+ *
+ *  The metrics are flushed when a snapshot is taken, so the file is at
+ *  least metricsBytes long, and a resumed run cuts it back to that
+ *  (the lines after are from ticks the resumed run does again).
+ *
+ *  The empty cells and the unsatisfied list are rebuilt from the world
+ *  when loading, in index order, so a resumed run is a correct
+ *  continuation but not move for move the same as one that never stopped.
+ */
+class Checkpoint {
+
+    static final int MAGIC = 0x53454743;   // "SEGC"
+    static final int VERSION = 2;
+
+    final int size;
+    final long tick;
+    final double threshold;
+    final long metricsBytes;
+    final Simulation.Scan scan;
+    final int radius;
+    final boolean torus;
+    final byte[] rand;
+    final long[] cells;
+
+    Checkpoint(int size, long tick, double threshold, long metricsBytes, Simulation.Scan scan, int radius,
+               boolean torus, byte[] rand, long[] cells) {
+        this.size = size;
+        this.tick = tick;
+        this.threshold = threshold;
+        this.metricsBytes = metricsBytes;
+        this.scan = scan;
+        this.radius = radius;
+        this.torus = torus;
+        this.rand = rand;
+        this.cells = cells;
+    }
+
+    static void save(Simulation sim, long metricsBytes, Path path) throws IOException {
+        of(sim, metricsBytes).write(path);
+    }
+
+    static Simulation load(Path path) throws IOException {
+        return read(path).restore();
+    }
+
+    // A copy of the simulation now, the only part done between ticks
+    static Checkpoint of(Simulation sim, long metricsBytes) throws IOException {
+        Grid world = sim.world;
+        long[] cells;
+        if (world instanceof PackedGrid) {
+            cells = ((PackedGrid) world).words.clone();
+        } else {
+            cells = new long[(world.cells() + 31) / 32];
+            for (int i = 0; i < world.cells(); i++) {
+                cells[i >>> 5] |= (long) world.get(i) << ((i & 31) << 1);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(sim.rand);
+        }
+        return new Checkpoint(world.size(), sim.tick, sim.threshold, metricsBytes, sim.scan, sim.radius,
+                sim.torus, bytes.toByteArray(), cells);
+    }
+
+    Simulation restore() throws IOException {
+        Random random;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(rand))) {
+            random = (Random) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Bad random generator in checkpoint", e);
+        }
+        Grid world = Grid.create(size);
+        if (world instanceof PackedGrid) {
+            System.arraycopy(cells, 0, ((PackedGrid) world).words, 0, cells.length);
+        } else {
+            for (int i = 0; i < world.cells(); i++) {
+                world.set(i, (byte) ((cells[i >>> 5] >>> ((i & 31) << 1)) & 3));
+            }
+        }
+        Simulation sim = new Simulation(world, threshold, random, scan, radius, torus);
+        sim.tick = tick;
+        return sim;
+    }
+
+    // Header bytes before the cells
+    int header() {
+        int n = 4 * 6 + 8 + 8 + 8 + 4 + rand.length;
+        return (n + 7) & ~7;
+    }
+
+    void write(Path path) throws IOException {
+        Path tmp = Paths.get(path + ".tmp");
+        long length = header() + 8L * cells.length;
+        try (FileChannel ch = FileChannel.open(tmp, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(scan.ordinal())
+                    .putInt(radius).putInt(torus ? 1 : 0)
+                    .putLong(tick).putDouble(threshold).putLong(metricsBytes)
+                    .putInt(rand.length).put(rand);
+            map.position(header());
+            map.asLongBuffer().put(cells);
+            // On the disk before the rename can be
+            map.force();
+        }
+        Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        forceDirectory(path.toAbsolutePath().getParent());
+    }
+
+    // So the rename is on the disk too (not possible on all systems, then skipped)
+    static void forceDirectory(Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // Can't open a directory here, the rename is as safe as the file system makes it
+        }
+    }
+
+    static Checkpoint read(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, READ)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                throw new IOException("Not a checkpoint: " + path);
+            }
+            int size = map.getInt();
+            Simulation.Scan scan = Simulation.Scan.values()[map.getInt()];
+            int radius = map.getInt();
+            boolean torus = map.getInt() != 0;
+            long tick = map.getLong();
+            double threshold = map.getDouble();
+            long metricsBytes = map.getLong();
+            byte[] rand = new byte[map.getInt()];
+            map.get(rand);
+            long[] cells = new long[(int) (((long) size * size + 31) / 32)];
+            Checkpoint c = new Checkpoint(size, tick, threshold, metricsBytes, scan, radius, torus, rand, cells);
+            if (ch.size() != c.header() + 8L * cells.length) {
+                throw new IOException("Bad checkpoint size: " + path);
+            }
+            map.position(c.header());
+            LongBuffer words = map.asLongBuffer();
+            words.get(cells);
+            return c;
+        }
+    }
+
+    // ---------- Checkpoints while running -----------------------
+
+    // Every 'every' ticks a snapshot is taken and written on a background
+    // thread. If the last one is still being written this one is skipped,
+    // so the ticks never wait for the disk. close() writes a last one of
+    // the state after the last tick, stop() (after an error) doesn't.
+    // The metrics must be written up to the tick before afterTick.
+    static class Periodic implements Closeable {
+        final Path path;
+        final long every;
+        final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        Future<?> pending;
+        long written;
+        Headless.Metrics metrics = Headless.NO_METRICS;   // Flushed for each snapshot
+        Simulation last;        // As after the last afterTick
+        long lastSnapshot = -1; // Tick of the last snapshot taken
+
+        Periodic(Path path, long every) {
+            this.path = path;
+            this.every = every;
+        }
+
+        void afterTick(Simulation sim) throws IOException {
+            last = sim;
+            if (sim.tick % every != 0) {
+                return;
+            }
+            if (pending != null) {
+                if (!pending.isDone()) {
+                    return;
+                }
+                check();
+            }
+            Checkpoint c = of(sim, metrics.flush());
+            lastSnapshot = sim.tick;
+            pending = writer.submit(() -> {
+                c.write(path);
+                return null;
+            });
+        }
+
+        // Throws the error of the last write, if any
+        void check() throws IOException {
+            try {
+                pending.get();
+                written++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IOException("Checkpoint failed", e.getCause());
+            }
+            pending = null;
+        }
+
+        // Waits for the last write and writes the state after the last tick
+        @Override
+        public void close() throws IOException {
+            stop();
+            if (last != null && last.tick != lastSnapshot) {
+                save(last, metrics.flush(), path);
+                lastSnapshot = last.tick;
+                written++;
+            }
+        }
+
+        // Waits for the last write, no new snapshot
+        void stop() throws IOException {
+            writer.shutdown();
+            if (pending != null) {
+                check();
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package calc;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+
+import static java.lang.System.out;
+
+/*
+ *  The Calculator for code that runs on many threads (and outside
+ *  package calc, Calculator itself is not public).
+ *
+ *  All methods are static and thread safe, there is nothing to create
+ *  per request:
+ *  - compile() gives an immutable Expression, one Expression may be
+ *    evaluated by any number of threads at the same time
+ *  - eval() looks the text up in the shared cache (no lock on a hit)
+ *  - evalUncached() parses and runs in this thread's own Rpn, no locks
+ *    and no allocation
+ *  The scratch stacks used while evaluating are local to the call or
+ *  to the thread, never shared.
+ *
+ *  main() checks that many threads get the same values and errors as one,
+ *  and that compiled trees give what the plain postfix program gives:
+ *    java calc.ConcurrentCalculator [threads] [rounds]
+ */
+public final class ConcurrentCalculator {
+
+    static final Calculator CALCULATOR = new Calculator();
+
+    public static Expression compile(String expr, String... variables) {
+        return CALCULATOR.compile(expr, variables);
+    }
+
+    // Same result and errors as Calculator.eval()
+    public static double eval(String expr) {
+        return CALCULATOR.eval(expr);
+    }
+
+    // For texts that don't repeat, not worth caching
+    public static double evalUncached(CharSequence expr) {
+        return Rpn.local().eval(expr);
+    }
+
+    public static ExpressionCache cache() {
+        return Calculator.CACHE;
+    }
+
+    // ----- Testing -----------------
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        out.println(stress(threads, rounds));
+        out.println(sameAsInterpreted(10_000));
+        out.println(keepsNewEntry());
+    }
+
+    static final String[] BAD = {"1 +", "(", "1 2", "a", "1 / 0", "5 / (3 - 3)", "2 ^", ")?", ""};
+    static final String[] XY = {"x", "y"};
+
+    // Threads evaluate shared texts (through the cache and without it) and shared
+    // trees at the same time, each from its own place, compared to one thread.
+    // More texts than the cache holds, so entries are evicted while others read them.
+    static boolean stress(int threads, int rounds) throws InterruptedException {
+        Random rand = new Random(1);
+        String[] texts = new String[cache().maxSize * 3 / 2];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = i % 10 == 0 ? BAD[i / 10 % BAD.length] : RandomExpressions.expression(3 + rand.nextInt(40), rand);
+        }
+        // Formulas in x and y, some divide by 0 for some rows (x == y)
+        Expression[] trees = new Expression[64];
+        for (int i = 0; i < trees.length; i++) {
+            String text = i % 8 == 0 ? "x / (x - y) + " + i : RandomExpressions.expression(3 + rand.nextInt(40), rand, XY);
+            try {
+                trees[i] = compile(text, XY);
+            } catch (IllegalArgumentException e) {
+                trees[i] = compile("x - y", XY);    // Divides by a constant 0
+            }
+        }
+        double[][] rows = new double[16][];
+        for (int i = 0; i < rows.length; i++) {
+            double x = 1 + rand.nextInt(4);
+            rows[i] = new double[]{x, i % 4 == 0 ? x : 1 + rand.nextInt(4)};
+        }
+        int n = 2 * texts.length + trees.length * rows.length;
+        String[] expected = new String[n];
+        double[] vars = new double[2];
+        for (int k = 0; k < n; k++) {
+            expected[k] = outcome(k, texts, trees, rows, vars);
+        }
+        AtomicInteger wrong = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int first = (int) ((long) n * t / threads);
+            workers[t] = new Thread(() -> {
+                double[] own = new double[2];    // Scratch per thread
+                for (int r = 0; r < rounds; r++) {
+                    for (int j = 0; j < n; j++) {
+                        int k = (first + j) % n;
+                        if (!expected[k].equals(outcome(k, texts, trees, rows, own))) {
+                            wrong.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        return wrong.get() == 0;
+    }
+
+    // Where simplifying could change the sign of a zero or the rounding
+    static final String[] EXACT = {"x * (0 - 1) + 0", "0 + x * (0 - 1)", "x - 0", "x * (0 - 1) - 0 * (0 - 1)",
+            "x * (0 - 1) + 0 * (0 - 1)", "x * 1 / 1 ^ 1", "x ^ 1", "x ^ 2", "x ^ 3", "(x + y) ^ 4", "1 * x"};
+
+    // Compiled (simplified) trees give the same values as the program before simplifying,
+    // run on a stack, bit for bit (-0.0 too), and the same errors
+    static boolean sameAsInterpreted(int formulas) {
+        Random rand = new Random(2);
+        double[] values = {0.0, -0.0, 1, -1, 0.1, 1.1, 3.3, 1e-300, -1e300, Double.NaN, Double.POSITIVE_INFINITY};
+        double[] vars = new double[2];
+        Rpn plain = new Rpn();
+        for (int i = 0; i < formulas; i++) {
+            String text = i < EXACT.length ? EXACT[i] : RandomExpressions.expression(3 + rand.nextInt(20), rand, XY);
+            plain.compile(text, 0, text.length(), XY);
+            double[] stack = new double[plain.maxDepth];
+            Expression tree;
+            String error = null;
+            try {
+                tree = compile(text, XY);
+            } catch (IllegalArgumentException e) {
+                tree = null;
+                error = "E:" + e.getMessage();   // A constant division by 0, the program throws the same
+            }
+            for (double x : values) {
+                for (double y : values) {
+                    vars[0] = x;
+                    vars[1] = y;
+                    Expression compiled = tree;
+                    String expected = outcome(() -> Rpn.run(plain.ops, plain.values, plain.length, stack, vars));
+                    String actual = compiled == null ? error : outcome(() -> compiled.eval(vars));
+                    if (!expected.equals(actual)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // A full segment evicts another entry, not the one just added, also when a hit
+    // gave the other one a newer stamp (as a hit while adding can)
+    static boolean keepsNewEntry() {
+        ExpressionCache cache = new ExpressionCache(1);
+        Calculator calc = new Calculator();
+        cache.get("1 + 1", calc::compile);
+        cache.segments[0].map.get("1 + 1").used = cache.segments[0].clock + 1;
+        cache.get("2 + 2", calc::compile);
+        return cache.segments[0].map.containsKey("2 + 2") && cache.size() == 1 && cache.evictions() == 1;
+    }
+
+    // Value or error message of work item k
+    static String outcome(int k, String[] texts, Expression[] trees, double[][] rows, double[] vars) {
+        DoubleSupplier work;
+        if (k < texts.length) {
+            work = () -> eval(texts[k]);
+        } else if (k < 2 * texts.length) {
+            work = () -> evalUncached(texts[k - texts.length]);
+        } else {
+            int i = k - 2 * texts.length;
+            double[] row = rows[i % rows.length];
+            vars[0] = row[0];
+            vars[1] = row[1];
+            work = () -> trees[i / rows.length].eval(vars);
+        }
+        return outcome(work);
+    }
+
+    static String outcome(DoubleSupplier work) {
+        try {
+            return Double.toString(work.getAsDouble());
+        } catch (IllegalArgumentException e) {
+            return "E:" + e.getMessage();
+        } catch (RuntimeException e) {
+            return "R:" + e.getMessage();
+        }
+    }
+}
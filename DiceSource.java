@@ -0,0 +1,72 @@
+import java.util.random.RandomGenerator;
+
+/*
+ *  Dice rolls (1..6) made in bulk, for PigSim.
+ *
+ *  One random long gives 23 rolls instead of one: the top 62 bits are a
+ *  number x below 2^62. If x < 5 * 6^23 (86% of the time) it is uniform
+ *  over 5 * 6^23 values, so its lowest 23 base-6 digits are 23 uniform,
+ *  independent rolls. Else x is thrown away and a new long is taken.
+ *  So the rolls are exactly uniform, there is no modulo bias.
+ *
+ *  The rolls are kept in a byte[] and handed out one at a time.
+ *  Not thread safe, use one per thread (as the RandomGenerator).
+ */
+class DiceSource {
+
+    static final int DIGITS = 23;
+    static final long SIX_POW_23 = 789_730_223_053_602_816L;
+
+    // The 4 rolls (base-6 digits + 1, lowest first) for each number below 6^4
+    static final byte[] FOUR = new byte[4 * 1296];
+
+    static {
+        for (int n = 0; n < 1296; n++) {
+            int x = n;
+            for (int d = 0; d < 4; d++) {
+                FOUR[4 * n + d] = (byte) (x % 6 + 1);
+                x /= 6;
+            }
+        }
+    }
+    static final long LIMIT = 5 * SIX_POW_23;   // Biggest multiple of 6^23 below 2^62
+
+    final RandomGenerator rng;
+    final byte[] rolls = new byte[DIGITS * 64];
+    int next = rolls.length;
+
+    DiceSource(RandomGenerator rng) {
+        this.rng = rng;
+    }
+
+    int roll() {
+        if (next == rolls.length) {
+            fill();
+        }
+        return rolls[next++];
+    }
+
+    void fill() {
+        int k = 0;
+        while (k < rolls.length) {
+            long x = rng.nextLong() >>> 2;
+            if (x >= LIMIT) {
+                continue;
+            }
+            // 4 digits per division, looked up in FOUR
+            for (int g = 0; g < 5; g++) {
+                int r = 4 * (int) (x % 1296);
+                x /= 1296;
+                rolls[k++] = FOUR[r];
+                rolls[k++] = FOUR[r + 1];
+                rolls[k++] = FOUR[r + 2];
+                rolls[k++] = FOUR[r + 3];
+            }
+            int r = 4 * (int) (x % 216);    // The last 3 digits
+            rolls[k++] = FOUR[r];
+            rolls[k++] = FOUR[r + 1];
+            rolls[k++] = FOUR[r + 2];
+        }
+        next = 0;
+    }
+}
@@ -0,0 +1,98 @@
+package calc;
+
+import java.util.Arrays;
+
+/*
+ *  A compiled expression, see Calculator.compile()
+ *
+ *  Holds the postfix program from Rpn (op codes and number values),
+ *  so eval() doesn't tokenize or parse again, and the same program as
+ *  a simplified Node tree, which is faster to evaluate. Immutable.
+ */
+public class Expression {
+
+    final String text;
+    final String[] variables;
+    final byte[] ops;        // null for the empty expression
+    final double[] values;
+    final int maxDepth;      // Stack size needed
+    final Node tree;         // null if empty or not well formed
+
+    // Throws DIV_BY_ZERO if the program divides by a constant 0
+    Expression(String text, String[] variables, byte[] ops, double[] values, int maxDepth) {
+        this.text = text;
+        this.variables = variables;
+        this.tree = ops == null ? null : Node.build(ops, values);
+        if (tree == null) {
+            this.ops = ops;
+            this.values = values;
+            this.maxDepth = maxDepth;
+        } else {
+            // The program of the simplified tree, used by evalColumns
+            Rpn simplified = new Rpn();
+            tree.emit(simplified);
+            this.ops = Arrays.copyOf(simplified.ops, simplified.length);
+            this.values = Arrays.copyOf(simplified.values, simplified.length);
+            this.maxDepth = simplified.maxDepth;
+        }
+    }
+
+    static final double[] NO_VALUES = {};
+
+    public double eval() {
+        return eval(NO_VALUES);
+    }
+
+    // Values in the same order as the variables given to compile()
+    public double eval(double... vars) {
+        if (vars.length != variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " variables");
+        }
+        if (tree != null) {
+            return tree.eval(vars);
+        }
+        if (ops == null) {
+            return Double.NaN;
+        }
+        // Not well formed, this throws the same error as evalPostfix
+        return Rpn.run(ops, values, ops.length, new double[maxDepth], vars);
+    }
+
+    // out[i] = value for row i, columns[k][i] is variable k in row i
+    public void evalColumns(double[][] columns, double[] out) {
+        evalColumns(columns, out, false);
+    }
+
+    // As above, if parallel big batches are split over all cores
+    public void evalColumns(double[][] columns, double[] out, boolean parallel) {
+        if (columns.length != variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " variables");
+        }
+        for (double[] column : columns) {
+            if (column.length < out.length) {
+                throw new IllegalArgumentException("Column shorter than output");
+            }
+        }
+        if (tree == null) {
+            // Empty or not well formed, row by row gives the right result or error
+            double[] row = new double[columns.length];
+            for (int i = 0; i < out.length; i++) {
+                for (int k = 0; k < columns.length; k++) {
+                    row[k] = columns[k][i];
+                }
+                out[i] = eval(row);
+            }
+            return;
+        }
+        BatchEval.eval(this, columns, out, parallel);
+    }
+
+    public String[] variables() {
+        return variables.clone();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,126 @@
+package calc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/*
+ *  Size limited cache of compiled expressions, keyed on the text.
+ *
+ *  Thread safe, and a hit takes no lock: the entries are split over a few
+ *  segments (by hash), each a ConcurrentHashMap. Only adding an entry
+ *  locks its segment. Counters are LongAdders so threads don't fight
+ *  over one counter.
+ *
+ *  Eviction is approximately LRU per segment: every segment has a clock
+ *  that ticks once per added entry, a hit stamps the entry with the
+ *  current clock (a write only if the clock moved, so hot entries are
+ *  read-only), and when a segment is full the entry with the oldest
+ *  stamp goes (never the one just added, hits while adding can give
+ *  others the same stamp).
+ *
+ *  Compiling is done outside any lock, so two threads may compile the
+ *  same text at the same time (both get a correct result).
+ */
+public class ExpressionCache {
+
+    static final int SEGMENTS = 16;
+
+    final int maxSize;
+    final Segment[] segments;
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    public ExpressionCache(int maxSize) {
+        this.maxSize = maxSize;
+        int n = Math.min(SEGMENTS, Integer.highestOneBit(Math.max(1, maxSize)));
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            // Rounded up, so all together hold at least maxSize
+            segments[i] = new Segment((maxSize + n - 1) / n);
+        }
+    }
+
+    public Expression get(String text, Function<String, Expression> compiler) {
+        int h = text.hashCode();
+        Segment segment = segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+        Entry e = segment.map.get(text);
+        if (e != null) {
+            hits.increment();
+            long now = segment.clock;
+            if (e.used != now) {
+                e.used = now;
+            }
+            return e.expression;
+        }
+        misses.increment();
+        Expression x = compiler.apply(text);   // Parse errors are thrown here, nothing cached
+        segment.put(text, x);
+        return x;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.map.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + " hits=" + hits() + " misses=" + misses() + " evictions=" + evictions();
+    }
+
+    // ---------- Segments -----------------------
+
+    static final class Entry {
+        final Expression expression;
+        long used;     // Segment clock at last use, races only make LRU less exact
+
+        Entry(Expression expression, long used) {
+            this.expression = expression;
+            this.used = used;
+        }
+    }
+
+    final class Segment {
+        final ConcurrentHashMap<String, Entry> map = new ConcurrentHashMap<>();
+        final int maxSize;
+        volatile long clock;
+
+        Segment(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized void put(String text, Expression x) {
+            long now = ++clock;
+            if (map.put(text, new Entry(x, now)) == null && map.size() > maxSize) {
+                String oldest = null;
+                long oldestUsed = 0;
+                for (Map.Entry<String, Entry> e : map.entrySet()) {
+                    if ((oldest == null || e.getValue().used < oldestUsed) && !e.getKey().equals(text)) {
+                        oldest = e.getKey();
+                        oldestUsed = e.getValue().used;
+                    }
+                }
+                map.remove(oldest != null ? oldest : text);   // Only text if maxSize is 0
+                evictions.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.Random;
+
+/*
+ *  The empty cells of a world as flat indices (row * size + col).
+ *
+ *  Built once and then kept up to date by the moves. A random empty cell
+ *  is taken in O(1) by swapping the last one into its place, so no
+ *  list has to be rebuilt or shuffled each tick.
+ */
+public class FreeSlots {
+
+    int[] slots;
+    int n;
+
+    public FreeSlots(Grid world) {
+        slots = new int[emptyCount(world)];
+        fill(world);
+    }
+
+    // Start again from the world's empty cells (as a new one), the array is kept if big enough
+    void reset(Grid world) {
+        int count = emptyCount(world);
+        if (slots.length < count) {
+            slots = new int[count];
+        }
+        fill(world);
+    }
+
+    static int emptyCount(Grid world) {
+        int count = 0;
+        if (world instanceof PackedGrid) {
+            long[] words = ((PackedGrid) world).words;
+            for (int w = 0; w < words.length; w++) {
+                count += Long.bitCount(emptyBits(words[w], w, world.cells()));
+            }
+            return count;
+        }
+        for (int i = 0; i < world.cells(); i++) {
+            if (world.get(i) == Grid.NONE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // All empty cells into slots, in order
+    void fill(Grid world) {
+        n = 0;
+        if (world instanceof PackedGrid) {
+            n = emptyCells((PackedGrid) world, slots);
+            return;
+        }
+        for (int i = 0; i < world.cells(); i++) {
+            if (world.get(i) == Grid.NONE) {
+                slots[n++] = i;
+            }
+        }
+    }
+
+    // Empty, with room for capacity cells (see Partition)
+    FreeSlots(int capacity) {
+        slots = new int[capacity];
+    }
+
+    // Same order, 32 cells at a time: a cell is empty if both its bits are 0.
+    // Returns the number of empty cells put in slots.
+    static int emptyCells(PackedGrid world, int[] slots) {
+        long[] words = world.words;
+        int cells = world.cells();
+        int k = 0;
+        for (int w = 0; w < words.length; w++) {
+            long bits = emptyBits(words[w], w, cells);
+            while (bits != 0) {
+                slots[k++] = (w << 5) + (Long.numberOfTrailingZeros(bits) >>> 1);
+                bits &= bits - 1;
+            }
+        }
+        return k;
+    }
+
+    // The low bit of each empty cell's pair set, cells past the end left out
+    static long emptyBits(long word, int w, int cells) {
+        long bits = ~(word | word >>> 1) & 0x5555_5555_5555_5555L;
+        int inWord = cells - (w << 5);
+        return inWord < 32 ? bits & ((1L << (2 * inWord)) - 1) : bits;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    // Remove and return a random empty cell
+    public int take(Random rand) {
+        int i = rand.nextInt(n);
+        int slot = slots[i];
+        slots[i] = slots[--n];
+        return slot;
+    }
+
+    public void add(int index) {
+        slots[n++] = index;
+    }
+}
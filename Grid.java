@@ -0,0 +1,47 @@
+/*
+ *  Storage for the square world used by Neighbours.
+ *
+ *  Cells are stored as small primitive codes instead of Actor references,
+ *  so big worlds don't need a pointer (and a row object) per cell.
+ *  Cells can be reached by (row, col) or by the flat index row * size + col.
+ *
+ *  See ByteGrid (one byte per cell) and PackedGrid (2 bits per cell).
+ */
+public interface Grid {
+
+    // Cell codes (NONE is 0 so a new grid is empty)
+    byte NONE = 0;
+    byte RED = 1;
+    byte BLUE = 2;
+
+    // Number of rows (and columns)
+    int size();
+
+    byte get(int index);
+
+    void set(int index, byte cell);
+
+    // Approximate number of bytes used for the cells
+    long bytes();
+
+    default byte get(int row, int col) {
+        return get(row * size() + col);
+    }
+
+    default void set(int row, int col, byte cell) {
+        set(row * size() + col, cell);
+    }
+
+    default int cells() {
+        return size() * size();
+    }
+
+    // Pick storage for a world of size x size cells
+    static Grid create(int size) {
+        // Above this the 4x smaller packed grid is worth the extra shifting
+        if ((long) size * size > 50_000_000L) {
+            return new PackedGrid(size);
+        }
+        return new ByteGrid(size);
+    }
+}
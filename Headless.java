@@ -0,0 +1,303 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+import static java.lang.System.*;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/*
+ *  Runs the segregation model without graphics, as fast as possible.
+ *
+ *  Stops when no actor is unsatisfied, when the number of unsatisfied
+ *  hasn't reached a new low for 'plateau' ticks, or after 'ticks' ticks.
+ *  One line (or record) of metrics per tick is written to 'out':
+ *  CSV if the name ends with .csv, else binary (see BinaryMetrics).
+ *  With metricsEvery=k only every k:th tick and the last one are written,
+ *  as each line needs the segregation, a pass over the whole world for
+ *  all scans but incremental (more than the tick itself for parallel).
+ *
+ *  Usage (all optional):
+ *    java Headless n=1000000 dist=0.25,0.25,0.5 threshold=0.7 seed=42
+ *                  ticks=10000 plateau=100 scan=incremental out=metrics.csv
+ *                  radius=1 torus=false    (other than these need scan=area)
+ *                  checkpoint=run.ckpt every=1000 resume=true log=10 metricsEvery=1
+ *  With checkpoint a snapshot is saved every 'every' ticks in the
+ *  background (see Checkpoint), with resume a run continues from it
+ *  (the world, threshold, scan and random state then come from the file).
+ *  'out' is then cut back to the checkpoint's tick and the resumed run's
+ *  metrics go on from there, so each tick is in it once.
+ *  With log a line of TickStats is printed every 'log' seconds.
+ */
+public class Headless {
+
+    public static void main(String[] args) throws IOException {
+        new Headless().program(args);
+    }
+
+    // Parameters, defaults as in Neighbours.init()
+    double[] dist = {0.25, 0.25, 0.50};
+    int nLocations = 900;
+    double threshold = 0.7;
+    long seed = 42;
+    long maxTicks = 10_000;
+    long plateau = 100;
+    Simulation.Scan scan = Simulation.Scan.INCREMENTAL;
+    int radius = 1;
+    boolean torus = false;
+    String outFile = "metrics.csv";
+    String checkpointFile;
+    long every = 1000;
+    boolean resume;
+    long logSeconds;     // 0 for no log
+    long metricsEvery = 1;
+
+    Checkpoint.Periodic checkpoints;   // null if none
+
+    void program(String[] args) throws IOException {
+        readArgs(args);
+        Simulation sim;
+        boolean resumed = resume && checkpointFile != null && Files.exists(Paths.get(checkpointFile));
+        if (resumed) {
+            Checkpoint saved = Checkpoint.read(Paths.get(checkpointFile));
+            sim = saved.restore();
+            cutMetrics(saved.metricsBytes);
+            out.println("Resumed at tick " + sim.tick);
+        } else {
+            Random rand = new Random(seed);
+            Grid world = Simulation.createWorld(dist, Grid.create((int) Math.sqrt(nLocations)), rand);
+            sim = new Simulation(world, threshold, rand, scan, radius, torus);
+        }
+        if (checkpointFile != null) {
+            checkpoints = new Checkpoint.Periodic(Paths.get(checkpointFile), every);
+        }
+        try (Metrics metrics = outFile.endsWith(".csv")
+                ? new CsvMetrics(outFile, resumed) : new BinaryMetrics(outFile, resumed)) {
+            if (checkpoints != null) {
+                checkpoints.metrics = metrics;
+            }
+            String why = run(sim, metrics);
+            if (checkpoints != null) {
+                checkpoints.close();   // The final state too
+            }
+            out.printf(Locale.ROOT, "Stopped after %d ticks (%s), segregation %.4f%n",
+                    sim.tick, why, sim.segregation());
+        } finally {
+            if (checkpoints != null) {
+                checkpoints.stop();
+            }
+        }
+    }
+
+    // Drop the metrics of ticks after the checkpoint, they are done again
+    void cutMetrics(long bytes) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(outFile), CREATE, WRITE)) {
+            if (ch.size() < bytes) {
+                throw new IOException("Metrics in " + outFile + " end before the checkpoint (" + ch.size()
+                        + " bytes, expected " + bytes + ")");
+            }
+            ch.truncate(bytes);
+        }
+    }
+
+    // Run until converged or maxTicks, returns why it stopped
+    String run(Simulation sim, Metrics metrics) throws IOException {
+        long best = Long.MAX_VALUE;
+        long bestTick = 0;
+        long lastLog = nanoTime();
+        while (sim.tick < maxTicks) {
+            long start = nanoTime();
+            int moves = sim.tick();
+            long nanos = nanoTime() - start;
+            if (logSeconds > 0 && nanoTime() - lastLog > logSeconds * 1_000_000_000) {
+                out.println(sim.stats.line());
+                lastLog = nanoTime();
+            }
+
+            String why = null;
+            if (sim.lastUnsatisfied == 0) {
+                why = "all satisfied";
+            } else if (sim.lastUnsatisfied < best) {
+                best = sim.lastUnsatisfied;
+                bestTick = sim.tick;
+            } else if (sim.tick - bestTick >= plateau) {
+                why = "plateau";
+            }
+            if (why == null && sim.tick >= maxTicks) {
+                why = "max ticks";
+            }
+            // The last tick always, segregation is a pass over all cells except with INCREMENTAL
+            if (metrics != NO_METRICS && (sim.tick % metricsEvery == 0 || why != null)) {
+                metrics.write(sim.tick, sim.lastUnsatisfied, moves, sim.segregation(), nanos);
+            }
+            // After the metrics, a snapshot takes their length as of this tick
+            if (checkpoints != null) {
+                checkpoints.afterTick(sim);
+            }
+            if (why != null) {
+                return why;
+            }
+        }
+        return "max ticks";
+    }
+
+    void readArgs(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "n":
+                    nLocations = Integer.parseInt(value);
+                    break;
+                case "dist":
+                    String[] parts = value.split(",");
+                    dist = new double[]{Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+                            Double.parseDouble(parts[2])};
+                    break;
+                case "threshold":
+                    threshold = Double.parseDouble(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "ticks":
+                    maxTicks = Long.parseLong(value);
+                    break;
+                case "plateau":
+                    plateau = Long.parseLong(value);
+                    break;
+                case "scan":
+                    scan = Simulation.Scan.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "radius":
+                    radius = Integer.parseInt(value);
+                    break;
+                case "torus":
+                    torus = Boolean.parseBoolean(value);
+                    break;
+                case "out":
+                    outFile = value;
+                    break;
+                case "checkpoint":
+                    checkpointFile = value;
+                    break;
+                case "every":
+                    every = Long.parseLong(value);
+                    break;
+                case "resume":
+                    resume = Boolean.parseBoolean(value);
+                    break;
+                case "log":
+                    logSeconds = Long.parseLong(value);
+                    break;
+                case "metricsEvery":
+                    metricsEvery = Long.parseLong(value);
+                    if (metricsEvery < 1) {
+                        throw new IllegalArgumentException("metricsEvery must be at least 1");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+        }
+    }
+
+    // ---------- Metrics output -----------------------
+
+    interface Metrics extends Closeable {
+        void write(long tick, int unsatisfied, int moves, double segregation, long nanos) throws IOException;
+
+        // Write out what is buffered, returns the length of the file
+        default long flush() throws IOException {
+            return 0;
+        }
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    // Used when only the end result is wanted (see Sweep)
+    static final Metrics NO_METRICS = (tick, unsatisfied, moves, segregation, nanos) -> {
+    };
+
+    static class CsvMetrics implements Metrics {
+        static final String HEADER = "tick,unsatisfied,moves,segregation,nanos\n";
+        final Writer writer;
+        long bytes;     // All ASCII, one byte per char
+
+        // If append the lines are added to the file, the header only if it's new
+        CsvMetrics(String file, boolean append) throws IOException {
+            bytes = append ? new File(file).length() : 0;
+            writer = new BufferedWriter(new FileWriter(file, append), 1 << 16);
+            if (bytes == 0) {
+                writer.write(HEADER);
+                bytes = HEADER.length();
+            }
+        }
+
+        @Override
+        public void write(long tick, int unsatisfied, int moves, double segregation, long nanos) throws IOException {
+            String line = tick + "," + unsatisfied + "," + moves + "," + segregation + "," + nanos + "\n";
+            writer.write(line);
+            bytes += line.length();
+        }
+
+        @Override
+        public long flush() throws IOException {
+            writer.flush();
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    // Header: int magic, then per tick: long tick, int unsatisfied, int moves,
+    // double segregation, long nanos (big endian, 32 bytes per tick)
+    static class BinaryMetrics implements Metrics {
+        static final int MAGIC = 0x5345474D;   // "SEGM"
+        final DataOutputStream data;
+        long bytes;     // data.size() is an int
+
+        // As CsvMetrics, the magic only in a new file
+        BinaryMetrics(String file, boolean append) throws IOException {
+            bytes = append ? new File(file).length() : 0;
+            data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append), 1 << 16));
+            if (bytes == 0) {
+                data.writeInt(MAGIC);
+                bytes = 4;
+            }
+        }
+
+        @Override
+        public void write(long tick, int unsatisfied, int moves, double segregation, long nanos) throws IOException {
+            data.writeLong(tick);
+            data.writeInt(unsatisfied);
+            data.writeInt(moves);
+            data.writeDouble(segregation);
+            data.writeLong(nanos);
+            bytes += 32;
+        }
+
+        @Override
+        public long flush() throws IOException {
+            data.flush();
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.util.Arrays;
+
+/*
+ *  Keeps, for every cell, how many RED and BLUE actors there are among
+ *  its (up to) 8 neighbours, and the set of unsatisfied actors.
+ *
+ *  All moves must go through move() so the counts stay correct. A move
+ *  only touches the 3x3 blocks around the old and new location, so a
+ *  tick costs time proportional to the number of moves, not the world size.
+ */
+public class NeighbourCounts {
+
+    final Grid world;
+    final int size;
+    final byte[] reds;      // Number of RED neighbours per cell
+    final byte[] blues;     // Number of BLUE neighbours per cell
+
+    // satisfied[same * 9 + occupied], same rule as Neighbours.isSatisfied
+    boolean[] satisfied;
+
+    // Sum over actors of 840 * same / occupied (840 = lcm(1..8), so always exact),
+    // and the number of actors with any neighbours. Used for segregation()
+    long sameSum;
+    long withNeighbours;
+
+    // Unsatisfied actors (flat indices), slot[i] is position in members + 1 (0 = not in set)
+    int[] members = new int[16];
+    int nMembers;
+    final int[] slot;
+
+    public NeighbourCounts(Grid world, double threshold) {
+        this.world = world;
+        this.size = world.size();
+        int n = world.cells();
+        reds = new byte[n];
+        blues = new byte[n];
+        slot = new int[n];
+        satisfied = ParallelScan.satisfiedTable(threshold);
+        count();
+    }
+
+    // Count again for the world as it is now (as a new one), the arrays are kept
+    void reset(double threshold) {
+        satisfied = ParallelScan.satisfiedTable(threshold);
+        Arrays.fill(reds, (byte) 0);
+        Arrays.fill(blues, (byte) 0);
+        Arrays.fill(slot, 0);
+        nMembers = 0;
+        count();
+    }
+
+    // Counts, segregation sums and unsatisfied set from the world, all counts 0 before
+    void count() {
+        int n = world.cells();
+        for (int i = 0; i < n; i++) {
+            byte cell = world.get(i);
+            if (cell != Grid.NONE) {
+                addAround(i, cell == Grid.RED ? reds : blues, 1);
+            }
+        }
+        sameSum = 0;
+        withNeighbours = 0;
+        for (int i = 0; i < n; i++) {
+            account(i, 1);
+            update(i);
+        }
+    }
+
+    public boolean isSatisfied(int index) {
+        byte cell = world.get(index);
+        if (cell == Grid.NONE) {
+            return true;
+        }
+        int same = cell == Grid.RED ? reds[index] : blues[index];
+        return satisfied[same * 9 + reds[index] + blues[index]];
+    }
+
+    // Move the actor at from to the empty cell to
+    public void move(int from, int to) {
+        byte cell = world.get(from);
+        byte[] counts = cell == Grid.RED ? reds : blues;
+        account(from, -1);
+        world.set(from, Grid.NONE);
+        addAround(from, counts, -1);
+        world.set(to, cell);
+        addAround(to, counts, 1);
+        account(to, 1);
+        updateAround(from);
+        updateAround(to);
+    }
+
+    public int unsatisfiedCount() {
+        return nMembers;
+    }
+
+    // Copy the current unsatisfied actors into dest (must be big enough), returns the count
+    public int unsatisfied(int[] dest) {
+        System.arraycopy(members, 0, dest, 0, nMembers);
+        return nMembers;
+    }
+
+    // Mean share of same colour neighbours, over actors with any neighbours
+    public double segregation() {
+        return withNeighbours == 0 ? 0 : sameSum / (840.0 * withNeighbours);
+    }
+
+    // ---------- Helpers -----------------------
+
+    // Add (sign 1) or remove (sign -1) the cell's part of sameSum and withNeighbours
+    void account(int index, int sign) {
+        byte cell = world.get(index);
+        int occupied = reds[index] + blues[index];
+        if (cell == Grid.NONE || occupied == 0) {
+            return;
+        }
+        int same = cell == Grid.RED ? reds[index] : blues[index];
+        sameSum += sign * (840 * same / occupied);
+        withNeighbours += sign;
+    }
+
+    void addAround(int index, byte[] counts, int delta) {
+        int row = index / size;
+        int col = index % size;
+        for (int r = Math.max(0, row - 1); r <= Math.min(size - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++) {
+                if (r != row || c != col) {
+                    int i = r * size + c;
+                    account(i, -1);
+                    counts[i] += delta;
+                    account(i, 1);
+                }
+            }
+        }
+    }
+
+    void updateAround(int index) {
+        int row = index / size;
+        int col = index % size;
+        for (int r = Math.max(0, row - 1); r <= Math.min(size - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++) {
+                update(r * size + c);
+            }
+        }
+    }
+
+    // Add or remove the cell from the unsatisfied set
+    void update(int index) {
+        boolean in = slot[index] != 0;
+        if (isSatisfied(index)) {
+            if (in) {
+                int pos = slot[index] - 1;
+                int last = members[--nMembers];
+                members[pos] = last;
+                slot[last] = pos + 1;
+                slot[index] = 0;
+            }
+        } else if (!in) {
+            if (nMembers == members.length) {
+                members = Arrays.copyOf(members, 2 * nMembers);
+            }
+            members[nMembers++] = index;
+            slot[index] = nMembers;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.lang.Math.*;
 import static java.lang.System.*;
@@ -20,6 +21,7 @@ import static java.lang.System.*;
  * - JavaFX first calls method init() and then the method start() far below.
  * - The method updateWorld() is called periodically by a Java timer.
  * - To test uncomment call to test() first in init() method!
+ * - The model itself is in Simulation, to run it without graphics see Headless.
  *
  */
 // Extends Application because of JavaFX (just accept for now)
@@ -39,29 +41,14 @@ public class Neighbours extends Application {
 
     // Below is the *only* accepted instance variable (i.e. variables outside any method)
     // This variable may *only* be used in methods init() and updateWorld()
-    Actor[][] world;              // The world is a square matrix of Actors
+    Grid world;                   // The world is a square grid of Actors (stored as cell codes)
+    Simulation sim;               // The model, moves the actors in world
 
     // This is the method called by the timer to update the world
     // (i.e move unsatisfied) approx each 1/60 sec.
     void updateWorld() {
-        // % of surrounding neighbours that are like me
-        final double threshold = 0.7;
         // TODO Update logical state of world - Done by me
-        List<int []> unsatisfied = new ArrayList<>();
-
-        for(int row = 0; row < world.length; row++){
-            for (int col = 0; col < world[row].length; col++){
-                Actor actor = world[row][col];
-                if (actor == Actor.NONE){
-                    continue;
-                }
-               if (!isSatisfied(world, row, col, threshold)){
-                   unsatisfied.add(new int[]{row,col});
-               }
-            }
-        }
-        moveActors(world,unsatisfied);
-
+        sim.tick();
     }
 
     // This method initializes the world variable with a random distribution of Actors
@@ -69,15 +56,22 @@ public class Neighbours extends Application {
     // Don't care about "@Override" and "public" (just accept for now)
     @Override
     public void init() {
-        test();    // <---------------- Uncomment to TEST!
+        //test();    // <---------------- Uncomment to TEST!
 
         // %-distribution of RED, BLUE and NONE
         double[] dist = {0.25, 0.25, 0.50};
         // Number of locations (places) in world (square)
         int nLocations = 900;
+        // % of surrounding neighbours that are like me
+        double threshold = 0.7;
+        // Same seed gives the same run
+        long seed = 42;
+        // INCREMENTAL counts, or PARALLEL or BITBOARD full scan each tick (for big worlds)
+        Simulation.Scan scan = Simulation.Scan.INCREMENTAL;
 
         // TODO Create and populate world - Done by me
-        world = createWorld(dist,nLocations);
+        sim = new Simulation(dist, nLocations, threshold, seed, scan);
+        world = sim.world;
         updateWorld();
 
 
@@ -95,39 +89,50 @@ public class Neighbours extends Application {
     }
 
     //Done by me:
-    Actor[][] createWorld(double[] dist, int nLocations){
-        int nRedDots = (int)(dist[0]*nLocations);
-        int nBlueDots = (int)(dist[1]*nLocations);
-        int nNone = nLocations - nBlueDots - nRedDots;
+    Grid createWorld(double[] dist, int nLocations){
         int dimensions = (int) Math.sqrt(nLocations);
-        Actor[][] world = new Actor[dimensions][dimensions];
+        return createWorld(dist, Grid.create(dimensions), new Random());
+    }
 
+    Grid createWorld(double[] dist, Grid world, Random rand){
+        return Simulation.createWorld(dist, world, rand);
+    }
 
-        List<Actor> actors = new ArrayList<>();
-        for (int i = 0; i < nRedDots; i++){
-            actors.add(Actor.RED);
+    byte toCell(Actor actor){
+        switch (actor){
+            case RED:
+                return Grid.RED;
+            case BLUE:
+                return Grid.BLUE;
+            default:
+                return Grid.NONE;
         }
-        for (int i = 0; i < nBlueDots; i++){
-            actors.add(Actor.BLUE);
-        }
-        for (int i = 0; i < nNone; i++){
-            actors.add(Actor.NONE);
+    }
+
+    Actor toActor(byte cell){
+        switch (cell){
+            case Grid.RED:
+                return Actor.RED;
+            case Grid.BLUE:
+                return Actor.BLUE;
+            default:
+                return Actor.NONE;
         }
+    }
 
-        Collections.shuffle(actors);
-        int index = 0;
-        for (int row = 0; row < dimensions; row++){
-            for (int col = 0; col < dimensions; col++){
-                world[row][col] = actors.get(index);
-                index++;
+    Grid toGrid(Actor[][] actors){
+        Grid grid = new ByteGrid(actors.length);
+        for (int r = 0; r < actors.length; r++){
+            for (int c = 0; c < actors[r].length; c++){
+                grid.set(r, c, toCell(actors[r][c]));
             }
         }
-        return  world;
-
+        return grid;
     }
-    Boolean isSatisfied(Actor[][] world, int row, int col, double threshold){
-        Actor actor = world[row][col];
-        if (actor == Actor.NONE){
+
+    boolean isSatisfied(Grid world, int row, int col, double threshold){
+        byte actor = world.get(row, col);
+        if (actor == Grid.NONE){
             return true;
         }
 
@@ -141,11 +146,11 @@ public class Neighbours extends Application {
                 int r = row + dr;
                 int c = col + dc;
 
-                if (!isValidLocation(world.length, r,c)){
+                if (!isValidLocation(world.size(), r,c)){
                     continue;
                 }
-                Actor neighbour = world[r][c];
-                if (neighbour != Actor.NONE){
+                byte neighbour = world.get(r, c);
+                if (neighbour != Grid.NONE){
                     neighbours++;
                     if (neighbour == actor){
                         validNeighbours++;
@@ -158,26 +163,8 @@ public class Neighbours extends Application {
 
 
 
-    void moveActors(Actor[][] world, List<int[]> unsatisfied){
-        List<int[]> emptyLocations = new ArrayList<>();
-        for (int r = 0; r < world.length; r++){
-            for (int c = 0; c < world[r].length; c++){
-                if (world[r][c] == Actor.NONE){
-                    emptyLocations.add(new int []{r,c});
-                }
-            }
-        }
-        Collections.shuffle(emptyLocations);
-        Random rand = new Random();
-
-        for (int i = 0; i < unsatisfied.size() && !emptyLocations.isEmpty(); i++){
-            int[] oldPosition = unsatisfied.get(i);
-            int[] newPosition = emptyLocations.remove(rand.nextInt(emptyLocations.size()));
-
-            Actor actor  = world[oldPosition[0]][oldPosition[1]];
-            world[newPosition[0]][newPosition[1]] = actor;
-            world[oldPosition[0]][oldPosition[1]] = Actor.NONE;
-        }
+    int moveActors(Grid world, int[] unsatisfied, int n, FreeSlots free, NeighbourCounts counts){
+        return Simulation.moveActors(world, unsatisfied, n, free, counts, new Random(), null);
     }
 
 
@@ -188,14 +175,14 @@ public class Neighbours extends Application {
     // to see that they really work
     void test() {
         // A small hard coded world for testing
-        Actor[][] testWorld = new Actor[][]{
+        Grid testWorld = toGrid(new Actor[][]{
                 {Actor.RED, Actor.RED, Actor.NONE},
                 {Actor.NONE, Actor.BLUE, Actor.NONE},
                 {Actor.RED, Actor.NONE, Actor.BLUE}
-        };
+        });
         double th = 0.5;   // Simple threshold used for testing
 
-        int size = testWorld.length;
+        int size = testWorld.size();
         out.println(isValidLocation(size, 0, 0));
         out.println(!isValidLocation(size, -1, 0));
         out.println(!isValidLocation(size, 0, 3));
@@ -209,20 +196,182 @@ public class Neighbours extends Application {
         out.println(!isSatisfied(testWorld,0,0, 0.8));
 
         //moveActors
-        List<int[]> testList = new ArrayList<>();
-        testList.add(new int[]{0,0});
-        testList.add(new int[]{0,1});
-        testList.add(new int[]{1,0});
-        moveActors(testWorld,testList);
-
-        for (int r = 0; r < testWorld.length; r++){
-            for (int c = 0; c < testWorld[r].length; c++){
+        int[] testList = {0, 1, 3};   // (0,0), (0,1) and (1,0)
+        FreeSlots testFree = new FreeSlots(testWorld);
+        out.println(moveActors(testWorld, testList, 3, testFree, null) == 3);
+        out.println(testFree.size() == 4 && testWorld.get(0, 0) == Grid.NONE);
+
+        for (int r = 0; r < testWorld.size(); r++){
+            for (int c = 0; c < testWorld.size(); c++){
                 out.println(isValidLocation(size,r,c));
             }
         }
+
+        // Grid storage
+        Grid bytes = new ByteGrid(5);
+        Grid packed = new PackedGrid(5);
+        createWorld(new double[]{0.25, 0.25, 0.50}, bytes, new Random(1));
+        createWorld(new double[]{0.25, 0.25, 0.50}, packed, new Random(1));
+        boolean same = true;
+        for (int i = 0; i < bytes.cells(); i++){
+            same = same && bytes.get(i) == packed.get(i);
+        }
+        out.println(same);
+        out.println(toActor(toCell(Actor.BLUE)) == Actor.BLUE);
+
+        // NeighbourCounts must agree with isSatisfied after moves
+        Grid big = createWorld(new double[]{0.25, 0.25, 0.50}, new ByteGrid(20), new Random(2));
+        NeighbourCounts nc = new NeighbourCounts(big, 0.7);
+        FreeSlots bigFree = new FreeSlots(big);
+        for (int tick = 0; tick < 5; tick++) {
+            int[] idx = new int[nc.unsatisfiedCount()];
+            moveActors(big, idx, nc.unsatisfied(idx), bigFree, nc);
+        }
+        boolean agree = true;
+        for (int i = 0; i < big.cells(); i++) {
+            agree = agree && nc.isSatisfied(i) == isSatisfied(big, i / 20, i % 20, 0.7);
+        }
+        out.println(agree);
+
+        // Parallel scan gives the same actors, in row order (big enough to be split)
+        Grid large = createWorld(new double[]{0.25, 0.25, 0.50}, new ByteGrid(300), new Random(3));
+        int[] found = ParallelScan.unsatisfied(large, 0.7, ForkJoinPool.commonPool());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < large.cells(); i++) {
+            if (!isSatisfied(large, i / 300, i % 300, 0.7)) {
+                expected.add(i);
+            }
+        }
+        boolean sameOrder = found.length == expected.size();
+        for (int i = 0; sameOrder && i < found.length; i++) {
+            sameOrder = found[i] == expected.get(i);
+        }
+        out.println(sameOrder);
+
+        // Segregation kept by the counts is the same as a full scan
+        Simulation incremental = new Simulation(new ByteGrid(30), new double[]{0.25, 0.25, 0.50},
+                0.7, new Random(4), Simulation.Scan.INCREMENTAL);
+        incremental.tick();
+        Simulation full = new Simulation(incremental.world, 0.7, new Random(), Simulation.Scan.PARALLEL);
+        out.println(abs(incremental.segregation() - full.segregation()) < 1e-9);
+
+        // Summed-area scan, radius 1 without wrap is the same as the plain scan
+        int[] area = new AreaScan(large, 1, false).unsatisfied(0.7, ForkJoinPool.commonPool());
+        out.println(Arrays.equals(area, found));
+        // Radius 3 on a torus, against counting every neighbour
+        AreaScan torus = new AreaScan(big, 3, true);
+        List<Integer> slow = new ArrayList<>();
+        for (int i = 0; i < big.cells(); i++) {
+            int row = i / 20, col = i % 20;
+            if (big.get(i) == Grid.NONE) {
+                continue;
+            }
+            int sameCount = 0, occupied = 0;
+            for (int dr = -3; dr <= 3; dr++) {
+                for (int dc = -3; dc <= 3; dc++) {
+                    byte neighbour = big.get((row + dr + 20) % 20, (col + dc + 20) % 20);
+                    if ((dr != 0 || dc != 0) && neighbour != Grid.NONE) {
+                        occupied++;
+                        if (neighbour == big.get(i)) {
+                            sameCount++;
+                        }
+                    }
+                }
+            }
+            if (occupied > 0 && sameCount / (double) occupied < 0.7) {
+                slow.add(i);
+            }
+        }
+        int[] fast = torus.unsatisfied(0.7, ForkJoinPool.commonPool());
+        out.println(Arrays.equals(fast, slow.stream().mapToInt(x -> x).toArray()));
+
+        // Bitboard scan is the same as the plain scan, for sizes around 64 bits and both grids
+        boolean bitsAgree = true;
+        for (int side : new int[]{1, 2, 7, 63, 64, 65, 130, 300}) {
+            Grid plainGrid = createWorld(new double[]{0.3, 0.3, 0.4}, new ByteGrid(side), new Random(side));
+            Grid packedGrid = new PackedGrid(side);
+            for (int i = 0; i < plainGrid.cells(); i++) {
+                packedGrid.set(i, plainGrid.get(i));
+            }
+            for (double t : new double[]{0.0, 0.3, 0.5, 0.7, 1.0}) {
+                int[] plain = ParallelScan.unsatisfied(plainGrid, t, ForkJoinPool.commonPool());
+                bitsAgree = bitsAgree
+                        && Arrays.equals(new BitboardScan(plainGrid).unsatisfied(t, ForkJoinPool.commonPool()), plain)
+                        && Arrays.equals(new BitboardScan(packedGrid).unsatisfied(t, ForkJoinPool.commonPool()), plain);
+            }
+        }
+        out.println(bitsAgree);
         exit(0);
     }
 
+    // Memory and scan speed of Actor[][] compared to the grids (call instead of test())
+    void compareGrids(int size) {
+        Runtime rt = Runtime.getRuntime();
+        double th = 0.7;
+
+        gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        Actor[][] matrix = new Actor[size][size];
+        Actor[] values = Actor.values();
+        Random rand = new Random(1);
+        for (int r = 0; r < size; r++){
+            for (int c = 0; c < size; c++){
+                matrix[r][c] = values[rand.nextInt(values.length)];
+            }
+        }
+        gc();
+        long matrixBytes = rt.totalMemory() - rt.freeMemory() - before;
+        long t0 = nanoTime();
+        int unsatisfied = 0;
+        for (int r = 0; r < size; r++){
+            for (int c = 0; c < size; c++){
+                if (!isSatisfied(matrix, r, c, th)){
+                    unsatisfied++;
+                }
+            }
+        }
+        long matrixNanos = nanoTime() - t0;
+        out.printf("Actor[][]  : %,d bytes, %.1f ns/cell (%d unsatisfied)%n",
+                matrixBytes, (double) matrixNanos / size / size, unsatisfied);
+        matrix = null;
+
+        for (Grid grid : new Grid[]{new ByteGrid(size), new PackedGrid(size)}) {
+            createWorld(new double[]{1 / 3.0, 1 / 3.0, 1 / 3.0}, grid, new Random(1));
+            t0 = nanoTime();
+            unsatisfied = 0;
+            for (int r = 0; r < size; r++){
+                for (int c = 0; c < size; c++){
+                    if (!isSatisfied(grid, r, c, th)){
+                        unsatisfied++;
+                    }
+                }
+            }
+            long nanos = nanoTime() - t0;
+            out.printf("%-11s: %,d bytes, %.1f ns/cell (%d unsatisfied)%n",
+                    grid.getClass().getSimpleName(), grid.bytes(), (double) nanos / size / size, unsatisfied);
+        }
+    }
+
+    // The original check on an Actor matrix, only kept for compareGrids()
+    boolean isSatisfied(Actor[][] world, int row, int col, double threshold){
+        Actor actor = world[row][col];
+        if (actor == Actor.NONE){
+            return true;
+        }
+        int validNeighbours = 0, neighbours = 0;
+        for (int r = max(0, row - 1); r <= min(world.length - 1, row + 1); r++){
+            for (int c = max(0, col - 1); c <= min(world.length - 1, col + 1); c++){
+                if ((r != row || c != col) && world[r][c] != Actor.NONE){
+                    neighbours++;
+                    if (world[r][c] == actor){
+                        validNeighbours++;
+                    }
+                }
+            }
+        }
+        return neighbours == 0 || (validNeighbours / (double) neighbours >= threshold);
+    }
+
     // Helper method for testing (NOTE: reference equality)
     <T> int count(T[] arr, T toFind) {
         int count = 0;
@@ -239,6 +388,7 @@ public class Neighbours extends Application {
     double width = 400;   // Size for window
     double height = 400;
     long previousTime = nanoTime();
+    final long startTime = previousTime;
     final long interval = 450000000;
     double dotSize;
     final double margin = 50;
@@ -267,7 +417,17 @@ public class Neighbours extends Application {
                 long elapsedNanos = currentNanoTime - previousTime;
                 if (elapsedNanos > interval) {
                     updateWorld();
-                    renderWorld(gc, world);
+                    sim.stats.beginRender();
+                    // Whole world first time, then only the cells that changed
+                    int cells;
+                    if (previousTime == startTime) {
+                        renderWorld(gc, world);
+                        cells = world.cells();
+                    } else {
+                        renderMoves(gc, world, sim.unsatisfied, sim.targets, sim.lastMoves);
+                        cells = 2 * sim.lastMoves;
+                    }
+                    sim.stats.rendered(sim.tick, cells);
                     previousTime = currentNanoTime;
                 }
             }
@@ -283,26 +443,44 @@ public class Neighbours extends Application {
 
 
     // Render the state of the world to the screen
-    public void renderWorld(GraphicsContext g, Actor[][] world) {
+    public void renderWorld(GraphicsContext g, Grid world) {
         g.clearRect(0, 0, width, height);
-        int size = world.length;
+        int size = world.size();
+        byte fill = Grid.NONE;
         for (int row = 0; row < size; row++) {
             for (int col = 0; col < size; col++) {
-                double x = dotSize * col + margin;
-                double y = dotSize * row + margin;
-
-                if (world[row][col] == Actor.RED) {
-                    g.setFill(Color.RED);
-                } else if (world[row][col] == Actor.BLUE) {
-                    g.setFill(Color.BLUE);
-                } else {
-                    g.setFill(Color.WHITE);
+                byte cell = world.get(row, col);
+                if (cell == Grid.NONE) {
+                    continue;   // Background is already white
+                }
+                if (cell != fill) {
+                    g.setFill(cell == Grid.RED ? Color.RED : Color.BLUE);
+                    fill = cell;
                 }
-                g.fillOval(x, y, dotSize, dotSize);
+                g.fillOval(dotSize * col + margin, dotSize * row + margin, dotSize, dotSize);
             }
         }
     }
 
+    // Redraw only the cells moved from and to in the last tick
+    void renderMoves(GraphicsContext g, Grid world, int[] from, int[] to, int nMoves) {
+        for (int i = 0; i < nMoves; i++) {
+            renderCell(g, world, from[i]);
+            renderCell(g, world, to[i]);
+        }
+    }
+
+    void renderCell(GraphicsContext g, Grid world, int index) {
+        double x = dotSize * (index % world.size()) + margin;
+        double y = dotSize * (index / world.size()) + margin;
+        g.clearRect(x, y, dotSize, dotSize);
+        byte cell = world.get(index);
+        if (cell != Grid.NONE) {
+            g.setFill(cell == Grid.RED ? Color.RED : Color.BLUE);
+            g.fillOval(x, y, dotSize, dotSize);
+        }
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,77 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/*
+ *  Neighbours workloads for the JMH benchmarks (src/jmh/java/bench).
+ *
+ *  JMH wants benchmarks in a package, and code in a package can't name
+ *  the classes here (the default package). So each op is handed over
+ *  as a java.util.function object, looked up once by name when the
+ *  benchmark is set up (bench.Workloads), and then called directly.
+ */
+public class NeighboursBenchmarks {
+
+    static final double THRESHOLD = 0.7;
+    static final int MOVERS = 1000;
+
+    final int size;
+    final Grid world;
+    final boolean[] satisfied = ParallelScan.satisfiedTable(THRESHOLD);
+    final BitboardScan bits;
+
+    // moveActors starts every time from these: the world, its unsatisfied actors and its empty cells
+    final ByteGrid moveWorld;
+    final byte[] moveStart;
+    final int[] movers;
+    final int nMovers;
+    final FreeSlots free;
+    final Random rand = new Random(4);
+
+    public NeighboursBenchmarks(int size) {
+        this.size = size;
+        world = Simulation.createWorld(new double[]{0.25, 0.25, 0.50}, new ByteGrid(size), new Random(1));
+        bits = new BitboardScan(world);
+        moveWorld = new ByteGrid(size);
+        Simulation.createWorld(new double[]{0.25, 0.25, 0.50}, moveWorld, new Random(3));
+        moveStart = moveWorld.cells.clone();
+        movers = ParallelScan.unsatisfied(moveWorld, THRESHOLD, ForkJoinPool.commonPool());
+        nMovers = Math.min(MOVERS, movers.length);
+        free = new FreeSlots(moveWorld);
+    }
+
+    // isSatisfied for every cell, one thread
+    public Supplier<Object> scan() {
+        return () -> new ParallelScan(world, satisfied, 0, size).scan();
+    }
+
+    public Supplier<Object> parallelScan() {
+        return () -> ParallelScan.unsatisfied(world, THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    public Supplier<Object> bitboardScan() {
+        return () -> bits.unsatisfied(THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    // One tick with a Simulation.Scan by name. High threshold, so the world
+    // never settles and each tick has the same kind of work.
+    public IntSupplier updateWorld(String scan) {
+        Simulation sim = new Simulation(new ByteGrid(size), new double[]{0.45, 0.45, 0.10},
+                0.9, new Random(2), Simulation.Scan.valueOf(scan));
+        return sim::tick;
+    }
+
+    // Moves up to MOVERS unsatisfied actors to random empty cells, run resetMoves first every time
+    public IntSupplier moveActors() {
+        return () -> Simulation.moveActors(moveWorld, movers, nMovers, free, null, rand, null);
+    }
+
+    // Back to the world and empty cells before the moves (the movers are only read), nothing allocated
+    public Runnable resetMoves() {
+        return () -> {
+            System.arraycopy(moveStart, 0, moveWorld.cells, 0, moveStart.length);
+            free.reset(moveWorld);
+        };
+    }
+}
@@ -0,0 +1,403 @@
+package calc;
+
+import static calc.Calculator.DIV_BY_ZERO;
+import static calc.Rpn.*;
+
+/*
+ *  An expression compiled to a tree of small objects, one per operator.
+ *
+ *  Evaluating the tree is plain virtual calls and arithmetic, no op code
+ *  switch and no stack, so the JIT can inline small trees completely.
+ *  Operators with a number as operand get their own node classes
+ *  (the common "x * 2" case) so there is one call less per operator.
+ *
+ *  The tree is simplified while it is built (see binary()):
+ *  - parts without variables are computed once, so a division by a
+ *    constant 0 throws DIV_BY_ZERO when compiling, not on every eval
+ *  - x * 1, 1 * x, x / 1 and x ^ 1 become x, and so do x - 0 and x + -0
+ *    (but not x + 0: -0.0 + 0 is 0.0, nor x - -0 for the same reason)
+ *  - x ^ 2 becomes x * x (exactly pow(x, 2), x ^ 3 and more are not)
+ *  Only what gives the same value as evalPostfix for every x is changed,
+ *  and nothing that could throw is ever removed (so no x * 0 or x ^ 0).
+ *
+ *  Immutable, so one tree can be evaluated by many threads at once.
+ */
+abstract class Node {
+
+    abstract double eval(double[] vars);
+
+    // Write the (simplified) postfix program for this tree
+    abstract void emit(Rpn out);
+
+    // Build from an Rpn program, null if the program is not well formed
+    // (then it must be run by Rpn.run() to get the right error)
+    static Node build(byte[] ops, double[] values) {
+        return build(ops, values, true);
+    }
+
+    // As above, without simplify only one plain node per operator (to measure what it gains)
+    static Node build(byte[] ops, double[] values, boolean simplify) {
+        Node[] stack = new Node[ops.length];
+        int sp = 0;
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == NUM) {
+                stack[sp++] = new Const(values[i]);
+                continue;
+            }
+            if (ops[i] == VAR) {
+                stack[sp++] = new Var((int) values[i]);
+                continue;
+            }
+            if (sp < 2) {
+                return null;
+            }
+            Node right = stack[--sp];
+            Node left = stack[sp - 1];
+            stack[sp - 1] = simplify ? binary(ops[i], left, right) : plain(ops[i], left, right);
+        }
+        return sp == 1 ? stack[0] : null;
+    }
+
+    static Node binary(byte op, Node left, Node right) {
+        if (left instanceof Const && right instanceof Const) {
+            // Division by 0 throws here
+            return new Const(Rpn.apply(op, ((Const) right).value, ((Const) left).value));
+        }
+        if (right instanceof Const) {
+            double c = ((Const) right).value;
+            switch (op) {
+                case ADD:
+                    return isNegativeZero(c) ? left : new AddConst(left, c);
+                case SUB:
+                    return isPositiveZero(c) ? left : new SubConst(left, c);
+                case MUL:
+                    return c == 1 ? left : new MulConst(left, c);
+                case DIV:
+                    if (c == 0) {
+                        throw new IllegalArgumentException(DIV_BY_ZERO);
+                    }
+                    return c == 1 ? left : new DivConst(left, c);
+                case POW:
+                    if (c == 1) {
+                        return left;
+                    } else if (c == 2) {
+                        return new Square(left);
+                    }
+                    return new PowConst(left, c);
+            }
+        }
+        if (left instanceof Const) {
+            double c = ((Const) left).value;
+            if (op == ADD) {
+                return isNegativeZero(c) ? right : new AddConst(right, c);
+            } else if (op == MUL) {
+                return c == 1 ? right : new MulConst(right, c);
+            }
+        }
+        return plain(op, left, right);
+    }
+
+    // x + -0.0 and x - 0.0 are x for every x, x + 0.0 is not for x = -0.0
+    static boolean isNegativeZero(double c) {
+        return Double.doubleToRawLongBits(c) == Long.MIN_VALUE;
+    }
+
+    static boolean isPositiveZero(double c) {
+        return Double.doubleToRawLongBits(c) == 0;
+    }
+
+    static Node plain(byte op, Node left, Node right) {
+        switch (op) {
+            case ADD:
+                return new Add(left, right);
+            case SUB:
+                return new Sub(left, right);
+            case MUL:
+                return new Mul(left, right);
+            case DIV:
+                return new Div(left, right);
+            default:
+                return new Pow(left, right);
+        }
+    }
+
+    // ---------- Nodes -----------------------
+
+    static final class Const extends Node {
+        final double value;
+
+        Const(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return value;
+        }
+
+        @Override
+        void emit(Rpn out) {
+            out.emit(NUM, value);
+        }
+    }
+
+    static final class Var extends Node {
+        final int index;
+
+        Var(int index) {
+            this.index = index;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return vars[index];
+        }
+
+        @Override
+        void emit(Rpn out) {
+            out.emit(VAR, index);
+        }
+    }
+
+    static final class Add extends Node {
+        final Node left, right;
+
+        Add(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) + right.eval(vars);
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            right.emit(out);
+            out.emit(ADD, 0);
+        }
+    }
+
+    static final class Sub extends Node {
+        final Node left, right;
+
+        Sub(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) - right.eval(vars);
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            right.emit(out);
+            out.emit(SUB, 0);
+        }
+    }
+
+    static final class Mul extends Node {
+        final Node left, right;
+
+        Mul(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) * right.eval(vars);
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            right.emit(out);
+            out.emit(MUL, 0);
+        }
+    }
+
+    static final class Div extends Node {
+        final Node left, right;
+
+        Div(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            double l = left.eval(vars);
+            double r = right.eval(vars);
+            if (r == 0) {
+                throw new IllegalArgumentException(DIV_BY_ZERO);
+            }
+            return l / r;
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            right.emit(out);
+            out.emit(DIV, 0);
+        }
+    }
+
+    static final class Pow extends Node {
+        final Node left, right;
+
+        Pow(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return Math.pow(left.eval(vars), right.eval(vars));
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            right.emit(out);
+            out.emit(POW, 0);
+        }
+    }
+
+    static final class AddConst extends Node {
+        final Node left;
+        final double c;
+
+        AddConst(Node left, double c) {
+            this.left = left;
+            this.c = c;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) + c;
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            out.emit(NUM, c);
+            out.emit(ADD, 0);
+        }
+    }
+
+    static final class SubConst extends Node {
+        final Node left;
+        final double c;
+
+        SubConst(Node left, double c) {
+            this.left = left;
+            this.c = c;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) - c;
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            out.emit(NUM, c);
+            out.emit(SUB, 0);
+        }
+    }
+
+    static final class MulConst extends Node {
+        final Node left;
+        final double c;
+
+        MulConst(Node left, double c) {
+            this.left = left;
+            this.c = c;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) * c;
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            out.emit(NUM, c);
+            out.emit(MUL, 0);
+        }
+    }
+
+    // c is never 0
+    static final class DivConst extends Node {
+        final Node left;
+        final double c;
+
+        DivConst(Node left, double c) {
+            this.left = left;
+            this.c = c;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) / c;
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            out.emit(NUM, c);
+            out.emit(DIV, 0);
+        }
+    }
+
+    static final class PowConst extends Node {
+        final Node left;
+        final double c;
+
+        PowConst(Node left, double c) {
+            this.left = left;
+            this.c = c;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return Math.pow(left.eval(vars), c);
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            out.emit(NUM, c);
+            out.emit(POW, 0);
+        }
+    }
+
+    static final class Square extends Node {
+        final Node left;
+
+        Square(Node left) {
+            this.left = left;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            double x = left.eval(vars);
+            return x * x;
+        }
+
+        @Override
+        void emit(Rpn out) {
+            left.emit(out);
+            out.emit(NUM, 2);
+            out.emit(POW, 0);
+        }
+    }
+}
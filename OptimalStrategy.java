@@ -0,0 +1,68 @@
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.random.RandomGenerator;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/*
+ *  The optimal policy from PigSolver, looked up in the memory mapped
+ *  policy file: one bit test per decision, nothing is computed.
+ *
+ *  Made for two players. With more, the leading opponent is used as
+ *  "the opponent", which is not optimal any more but close.
+ */
+class OptimalStrategy implements Strategy {
+
+    final int winPts;
+    final LongBuffer policy;   // Read only view of the mapped file
+
+    OptimalStrategy(int winPts, LongBuffer policy) {
+        this.winPts = winPts;
+        this.policy = policy;
+    }
+
+    // Maps a policy file saved by PigSolver
+    static OptimalStrategy load(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, READ)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (map.getInt(0) != PigSolver.MAGIC || map.getInt(4) != PigSolver.VERSION) {
+                throw new IOException("Not a Pig policy file: " + path);
+            }
+            int winPts = map.getInt(8);
+            int nLongs = map.getInt(12);
+            long cells = (long) winPts * winPts * winPts;
+            if (nLongs != (cells + 63) / 64 || ch.size() != PigSolver.HEADER + 8L * nLongs) {
+                throw new IOException("Bad size of policy file: " + path);
+            }
+            return new OptimalStrategy(winPts, map.position(PigSolver.HEADER).slice().asLongBuffer());
+        }
+    }
+
+    // The policy for winPts, solved and saved first if there is no file yet
+    static OptimalStrategy forWinPts(int winPts) {
+        Path path = Paths.get(PigSolver.file(winPts));
+        try {
+            if (!Files.exists(path)) {
+                PigSolver.save(path, winPts, PigSolver.solve(winPts, 1e-12).policy);
+            }
+            return load(path);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean roll(int totalPts, int roundPts, int[] opponents, RandomGenerator rng) {
+        int opponent = 0;
+        for (int p : opponents) {
+            opponent = Math.max(opponent, p);
+        }
+        int s = PigSolver.index(winPts, totalPts, opponent, roundPts);
+        return (policy.get(s >>> 6) >>> s & 1) != 0;
+    }
+}
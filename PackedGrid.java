@@ -0,0 +1,39 @@
+/*
+ *  Grid with 2 bits per cell, 32 cells in each long (row-major).
+ *  Uses a quarter of the memory of ByteGrid.
+ */
+public class PackedGrid implements Grid {
+
+    final int size;
+    final long[] words;
+
+    public PackedGrid(int size) {
+        if ((long) size * size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("World too big: " + size);
+        }
+        this.size = size;
+        this.words = new long[(int) (((long) size * size + 31) / 32)];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte get(int index) {
+        return (byte) ((words[index >>> 5] >>> ((index & 31) << 1)) & 3);
+    }
+
+    @Override
+    public void set(int index, byte cell) {
+        int shift = (index & 31) << 1;
+        long w = words[index >>> 5];
+        words[index >>> 5] = (w & ~(3L << shift)) | ((long) (cell & 3) << shift);
+    }
+
+    @Override
+    public long bytes() {
+        return 8L * words.length;
+    }
+}
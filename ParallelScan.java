@@ -0,0 +1,95 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ *  Finds all unsatisfied actors by scanning bands of rows in parallel.
+ *
+ *  Each band only reads the world, so bands can be scanned at the same time.
+ *  The bands' lists are joined in row order, so the result is the same
+ *  as a sequential row by row scan no matter how many threads are used.
+ */
+public class ParallelScan extends RecursiveTask<int[]> {
+
+    // Don't split below this many cells, not worth the task overhead
+    static final int MIN_CELLS = 1 << 15;
+
+    final Grid world;
+    final boolean[] satisfied;
+    final int fromRow;
+    final int toRow;
+
+    ParallelScan(Grid world, boolean[] satisfied, int fromRow, int toRow) {
+        this.world = world;
+        this.satisfied = satisfied;
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+    }
+
+    // Flat indices (row * size + col) of all unsatisfied actors, in row order
+    public static int[] unsatisfied(Grid world, double threshold, ForkJoinPool pool) {
+        boolean[] satisfied = satisfiedTable(threshold);
+        return pool.invoke(new ParallelScan(world, satisfied, 0, world.size()));
+    }
+
+    // satisfied[same * 9 + occupied] for the Moore neighbourhood
+    static boolean[] satisfiedTable(double threshold) {
+        boolean[] satisfied = new boolean[9 * 9];
+        for (int occupied = 0; occupied <= 8; occupied++) {
+            for (int same = 0; same <= occupied; same++) {
+                satisfied[same * 9 + occupied] = occupied == 0 || same / (double) occupied >= threshold;
+            }
+        }
+        return satisfied;
+    }
+
+    @Override
+    protected int[] compute() {
+        int size = world.size();
+        if ((long) (toRow - fromRow) * size <= MIN_CELLS || toRow - fromRow < 2) {
+            return scan();
+        }
+        int mid = (fromRow + toRow) >>> 1;
+        ParallelScan top = new ParallelScan(world, satisfied, fromRow, mid);
+        ParallelScan bottom = new ParallelScan(world, satisfied, mid, toRow);
+        top.fork();
+        int[] b = bottom.compute();
+        int[] a = top.join();
+        int[] all = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        return all;
+    }
+
+    int[] scan() {
+        int size = world.size();
+        int[] found = new int[64];
+        int n = 0;
+        for (int row = fromRow; row < toRow; row++) {
+            for (int col = 0; col < size; col++) {
+                byte actor = world.get(row, col);
+                if (actor == Grid.NONE) {
+                    continue;
+                }
+                int same = 0, occupied = 0;
+                for (int r = Math.max(0, row - 1); r <= Math.min(size - 1, row + 1); r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++) {
+                        byte neighbour = world.get(r, c);
+                        if ((r != row || c != col) && neighbour != Grid.NONE) {
+                            occupied++;
+                            if (neighbour == actor) {
+                                same++;
+                            }
+                        }
+                    }
+                }
+                if (!satisfied[same * 9 + occupied]) {
+                    if (n == found.length) {
+                        found = Arrays.copyOf(found, 2 * n);
+                    }
+                    found[n++] = row * size + col;
+                }
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+}
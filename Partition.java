@@ -0,0 +1,225 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ *  One band of rows of a Partitioned world, run in its own process.
+ *
+ *  The cells are bytes (as ByteGrid) with one extra row above and one
+ *  below: the halos, copies of the edge rows of the bands next to this
+ *  one, sent before each scan. At the edges of the world they stay empty,
+ *  which counts the same as clipping (an empty cell is no neighbour).
+ *  Cells are indexed by their place in 'cells', own rows are 1..rows.
+ *
+ *  Answers the messages of Partitioned until STOP or the connection closes.
+ *
+ *  Usage (started by Partitioned):
+ *    java Partition port index
+ */
+public class Partition {
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int index = Integer.parseInt(args[1]);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            out.writeInt(index);
+            out.flush();
+            int size = in.readInt();
+            int rows = in.readInt();
+            double[] dist = {in.readDouble(), in.readDouble(), in.readDouble()};
+            double threshold = in.readDouble();
+            long seed = in.readLong();
+            new Partition(size, rows, dist, threshold, new Random(seed)).serve(in, out);
+        } catch (EOFException e) {
+            // Coordinator gone, nothing more to do
+        }
+    }
+
+    final int size;
+    final int rows;
+    final boolean[] satisfied;  // As ParallelScan
+    final Random rand;
+    final byte[] cells;         // (rows + 2) * size, halo rows first and last
+    final FreeSlots free;
+    int[] unsatisfied = new int[16];
+    int nUnsatisfied;
+    int nLeaving;               // The first nLeaving unsatisfied are moving out
+
+    Partition(int size, int rows, double[] dist, double threshold, Random rand) {
+        this.size = size;
+        this.rows = rows;
+        this.satisfied = ParallelScan.satisfiedTable(threshold);
+        this.rand = rand;
+        this.cells = new byte[(rows + 2) * size];
+        this.free = new FreeSlots(rows * size);
+        populate(dist);
+    }
+
+    // As Simulation.createWorld, for the own rows only
+    void populate(double[] dist) {
+        int from = size;
+        int n = rows * size;
+        int nRed = (int) (dist[0] * n);
+        int nBlue = (int) (dist[1] * n);
+        for (int i = 0; i < n; i++) {
+            cells[from + i] = i < nRed ? Grid.RED : i < nRed + nBlue ? Grid.BLUE : Grid.NONE;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            byte tmp = cells[from + i];
+            cells[from + i] = cells[from + j];
+            cells[from + j] = tmp;
+        }
+        for (int i = from; i < from + n; i++) {
+            if (cells[i] == Grid.NONE) {
+                free.add(i);
+            }
+        }
+    }
+
+    void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            int message = in.readInt();
+            switch (message) {
+                case Partitioned.ROWS:
+                    out.write(cells, size, size);
+                    out.write(cells, rows * size, size);
+                    break;
+                case Partitioned.SCAN:
+                    readHalos(in);
+                    scan();
+                    out.writeLong(nUnsatisfied);
+                    out.writeLong(free.size());
+                    break;
+                case Partitioned.MOVE:
+                    leave((int) in.readLong(), out);
+                    out.flush();
+                    arrive((int) in.readLong(), (int) in.readLong());
+                    break;
+                case Partitioned.SEGREGATION:
+                    readHalos(in);
+                    segregation(out);
+                    break;
+                case Partitioned.CELLS:
+                    out.write(cells);
+                    break;
+                case Partitioned.STOP:
+                    return;
+                default:
+                    throw new IOException("Unknown message: " + message);
+            }
+            out.flush();
+        }
+    }
+
+    void readHalos(DataInputStream in) throws IOException {
+        in.readFully(cells, 0, size);
+        in.readFully(cells, (rows + 1) * size, size);
+    }
+
+    // Same rule as ParallelScan
+    void scan() {
+        int n = 0;
+        for (int row = 1; row <= rows; row++) {
+            for (int col = 0; col < size; col++) {
+                int i = row * size + col;
+                byte actor = cells[i];
+                if (actor == Grid.NONE) {
+                    continue;
+                }
+                int same = 0, occupied = 0;
+                for (int r = row - 1; r <= row + 1; r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++) {
+                        byte neighbour = cells[r * size + c];
+                        if (neighbour != Grid.NONE) {
+                            occupied++;
+                            if (neighbour == actor) {
+                                same++;
+                            }
+                        }
+                    }
+                }
+                // The actor itself was counted
+                if (!satisfied[(same - 1) * 9 + occupied - 1]) {
+                    if (n == unsatisfied.length) {
+                        unsatisfied = Arrays.copyOf(unsatisfied, 2 * n);
+                    }
+                    unsatisfied[n++] = i;
+                }
+            }
+        }
+        nUnsatisfied = n;
+    }
+
+    // Take k random unsatisfied actors out, send how many were red and blue.
+    // Their cells are free only after the arrivals, as in Simulation.moveActors.
+    void leave(int k, DataOutputStream out) throws IOException {
+        long reds = 0, blues = 0;
+        for (int j = 0; j < k; j++) {
+            int pick = j + rand.nextInt(nUnsatisfied - j);
+            int i = unsatisfied[pick];
+            unsatisfied[pick] = unsatisfied[j];
+            unsatisfied[j] = i;
+            if (cells[i] == Grid.RED) {
+                reds++;
+            } else {
+                blues++;
+            }
+            cells[i] = Grid.NONE;
+        }
+        nLeaving = k;
+        out.writeLong(reds);
+        out.writeLong(blues);
+    }
+
+    // Put actors into random empty cells, then free the cells left
+    void arrive(int reds, int blues) {
+        for (int j = 0; j < reds; j++) {
+            cells[free.take(rand)] = Grid.RED;
+        }
+        for (int j = 0; j < blues; j++) {
+            cells[free.take(rand)] = Grid.BLUE;
+        }
+        for (int j = 0; j < nLeaving; j++) {
+            free.add(unsatisfied[j]);
+        }
+        nLeaving = 0;
+    }
+
+    // Sum of same colour shares and number of actors with any neighbours, as Simulation.segregation
+    void segregation(DataOutputStream out) throws IOException {
+        double sum = 0;
+        long actors = 0;
+        for (int row = 1; row <= rows; row++) {
+            for (int col = 0; col < size; col++) {
+                byte actor = cells[row * size + col];
+                if (actor == Grid.NONE) {
+                    continue;
+                }
+                int same = 0, occupied = 0;
+                for (int r = row - 1; r <= row + 1; r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++) {
+                        byte neighbour = cells[r * size + c];
+                        if ((r != row || c != col) && neighbour != Grid.NONE) {
+                            occupied++;
+                            if (neighbour == actor) {
+                                same++;
+                            }
+                        }
+                    }
+                }
+                if (occupied > 0) {
+                    sum += same / (double) occupied;
+                    actors++;
+                }
+            }
+        }
+        out.writeDouble(sum);
+        out.writeLong(actors);
+    }
+}
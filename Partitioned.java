@@ -0,0 +1,486 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.lang.System.*;
+
+/*
+ *  Runs the segregation model split over several processes, for worlds
+ *  bigger than one heap.
+ *
+ *  The world is cut into bands of rows, each owned by a worker process
+ *  (Partition) started here with the same class path, connected over a
+ *  local socket. Each tick:
+ *    1. The workers send their top and bottom rows, and get the rows just
+ *       outside their band back (halos, empty at the edges of the world).
+ *    2. The workers find their unsatisfied actors and send how many there
+ *       are, and how many empty cells.
+ *    3. The moves are dealt out here. As in Simulation.moveActors every
+ *       mover gets a random empty cell of the whole world (so moves
+ *       cross bands), and if there are too few empty cells a random
+ *       part of the unsatisfied move. Each worker is told how many of
+ *       its actors leave, and how many red and blue ones arrive in
+ *       random empty cells of its own.
+ *  Only edge rows and counts go over the sockets, never the cells.
+ *
+ *  Each worker fills its band as Simulation.createWorld (own seed), so a
+ *  run is not the same as one with Headless and the same seed, but the
+ *  segregation reached should be (compare with Headless scan=parallel).
+ *
+ *  Usage (all optional):
+ *    java Partitioned workers=4 n=1000000 dist=0.25,0.25,0.5 threshold=0.7
+ *                     seed=42 ticks=10000 plateau=100 heap=1g
+ *  'heap' is the -Xmx of each worker, at least size * size / workers * 9 bytes.
+ *
+ *  Scripted check on one box (prints true for each part that works):
+ *    java Partitioned test=true workers=3 n=10000
+ */
+public class Partitioned {
+
+    public static void main(String[] args) throws IOException {
+        new Partitioned().program(args);
+    }
+
+    // Messages to a worker, see Partition.serve
+    static final int ROWS = 1;          // -> top row, bottom row
+    static final int SCAN = 2;          // halo above, halo below -> long unsatisfied, long empty
+    static final int MOVE = 3;          // long leaving -> long reds, long blues; long reds, long blues arriving
+    static final int SEGREGATION = 4;   // halo above, halo below -> double sum, long actors
+    static final int STOP = 5;
+    static final int CELLS = 6;         // -> all (rows + 2) * size cells, halos included, for test
+
+    // Parameters, defaults as Headless
+    int workers = 4;
+    double[] dist = {0.25, 0.25, 0.50};
+    long nLocations = 900;
+    double threshold = 0.7;
+    long seed = 42;
+    long maxTicks = 10_000;
+    long plateau = 100;
+    String heap;                // Default heap if null
+    boolean test;
+
+    int size;
+    Random rand;
+    final List<Process> processes = new ArrayList<>();
+    DataInputStream[] ins;
+    DataOutputStream[] outs;
+    byte[] empty;               // Halo outside the world
+
+    // Reused each tick
+    byte[][] top;               // Edge rows of each worker
+    byte[][] bottom;
+    long[] unsatisfied;         // Found by each worker in the last tick
+    long[] vacant;
+
+    long tick;
+    long lastUnsatisfied;
+
+    void program(String[] args) throws IOException {
+        readArgs(args);
+        if (test) {
+            test();
+            return;
+        }
+        long start = nanoTime();
+        try {
+            open();
+            out.printf(Locale.ROOT, "%d workers started in %.1f s%n", workers, (nanoTime() - start) / 1e9);
+            String why = run();
+            out.printf(Locale.ROOT, "Stopped after %d ticks (%s), segregation %.4f, %.1f s%n",
+                    tick, why, segregation(), (nanoTime() - start) / 1e9);
+        } finally {
+            close();
+        }
+    }
+
+    // Start the workers and give them their bands
+    void open() throws IOException {
+        size = (int) Math.sqrt(nLocations);
+        if (workers < 1 || workers > size) {
+            throw new IllegalArgumentException("Workers must be 1 to " + size);
+        }
+        rand = new Random(seed);
+        empty = new byte[size];
+        top = new byte[workers][size];
+        bottom = new byte[workers][size];
+        unsatisfied = new long[workers];
+        vacant = new long[workers];
+        try (ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+            startWorkers(server);
+        }
+    }
+
+    // Stop the workers, those that connected get STOP, then all are killed
+    void close() {
+        if (outs != null) {
+            for (DataOutputStream o : outs) {
+                try {
+                    if (o != null) {
+                        o.writeInt(STOP);
+                        o.flush();
+                    }
+                } catch (IOException e) {
+                    // Already gone
+                }
+            }
+        }
+        for (Process p : processes) {
+            p.destroy();
+        }
+    }
+
+    void startWorkers(ServerSocket server) throws IOException {
+        String java = Paths.get(getProperty("java.home"), "bin", "java").toString();
+        for (int i = 0; i < workers; i++) {
+            List<String> command = new ArrayList<>(List.of(java));
+            if (heap != null) {
+                command.add("-Xmx" + heap);
+            }
+            command.addAll(List.of("-cp", getProperty("java.class.path"),
+                    "Partition", String.valueOf(server.getLocalPort()), String.valueOf(i)));
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+        }
+        // They connect in any order and say which one they are
+        server.setSoTimeout(60_000);
+        ins = new DataInputStream[workers];
+        outs = new DataOutputStream[workers];
+        for (int k = 0; k < workers; k++) {
+            Socket socket = server.accept();
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            int i = in.readInt();
+            ins[i] = in;
+            outs[i] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+        for (int i = 0; i < workers; i++) {
+            DataOutputStream o = outs[i];
+            o.writeInt(size);
+            o.writeInt(rows(i));
+            for (double d : dist) {
+                o.writeDouble(d);
+            }
+            o.writeDouble(threshold);
+            o.writeLong(rand.nextLong());
+            o.flush();
+        }
+    }
+
+    // First row of worker i's band (i == workers gives size)
+    int fromRow(int i) {
+        return (int) ((long) size * i / workers);
+    }
+
+    int rows(int i) {
+        return fromRow(i + 1) - fromRow(i);
+    }
+
+    // Same stop rules as Headless.run
+    String run() throws IOException {
+        long best = Long.MAX_VALUE;
+        long bestTick = 0;
+        while (tick < maxTicks) {
+            tick();
+            if (lastUnsatisfied == 0) {
+                return "all satisfied";
+            }
+            if (lastUnsatisfied < best) {
+                best = lastUnsatisfied;
+                bestTick = tick;
+            } else if (tick - bestTick >= plateau) {
+                return "plateau";
+            }
+        }
+        return "max ticks";
+    }
+
+    // Returns number of moves
+    long tick() throws IOException {
+        sendHalos(SCAN);
+        long nUnsatisfied = 0, nVacant = 0;
+        for (int i = 0; i < workers; i++) {
+            unsatisfied[i] = ins[i].readLong();
+            vacant[i] = ins[i].readLong();
+            nUnsatisfied += unsatisfied[i];
+            nVacant += vacant[i];
+        }
+        long moves = Math.min(nUnsatisfied, nVacant);
+        long[] leaving = nUnsatisfied <= nVacant ? unsatisfied : draw(unsatisfied.clone(), moves);
+        for (int i = 0; i < workers; i++) {
+            outs[i].writeInt(MOVE);
+            outs[i].writeLong(leaving[i]);
+            outs[i].flush();
+        }
+        long[] colours = new long[2];   // Red and blue movers
+        for (int i = 0; i < workers; i++) {
+            colours[0] += ins[i].readLong();
+            colours[1] += ins[i].readLong();
+        }
+        // Random empty cells of the whole world, random colours to each
+        long[] arriving = draw(vacant, moves);
+        for (int i = 0; i < workers; i++) {
+            long[] c = draw(colours, arriving[i]);
+            outs[i].writeLong(c[0]);
+            outs[i].writeLong(c[1]);
+            outs[i].flush();
+        }
+        lastUnsatisfied = nUnsatisfied;
+        tick++;
+        return moves;
+    }
+
+    // Mean share of same colour neighbours, as Simulation.segregation
+    double segregation() throws IOException {
+        sendHalos(SEGREGATION);
+        double sum = 0;
+        long actors = 0;
+        for (int i = 0; i < workers; i++) {
+            sum += ins[i].readDouble();
+            actors += ins[i].readLong();
+        }
+        return actors == 0 ? 0 : sum / actors;
+    }
+
+    // Collect the edge rows, then send each worker the message and its halos
+    void sendHalos(int message) throws IOException {
+        for (DataOutputStream o : outs) {
+            o.writeInt(ROWS);
+            o.flush();
+        }
+        for (int i = 0; i < workers; i++) {
+            ins[i].readFully(top[i]);
+            ins[i].readFully(bottom[i]);
+        }
+        for (int i = 0; i < workers; i++) {
+            outs[i].writeInt(message);
+            outs[i].write(i > 0 ? bottom[i - 1] : empty);
+            outs[i].write(i < workers - 1 ? top[i + 1] : empty);
+            outs[i].flush();
+        }
+    }
+
+    // Each worker's cells, halo rows first and last
+    byte[][] cells() throws IOException {
+        for (DataOutputStream o : outs) {
+            o.writeInt(CELLS);
+            o.flush();
+        }
+        byte[][] cells = new byte[workers][];
+        for (int i = 0; i < workers; i++) {
+            cells[i] = new byte[(rows(i) + 2) * size];
+            ins[i].readFully(cells[i]);
+        }
+        return cells;
+    }
+
+    // The whole world from the workers' own rows
+    Grid world(byte[][] cells) {
+        Grid world = new ByteGrid(size);
+        for (int i = 0; i < workers; i++) {
+            for (int row = fromRow(i); row < fromRow(i + 1); row++) {
+                for (int col = 0; col < size; col++) {
+                    world.set(row, col, cells[i][(row - fromRow(i) + 1) * size + col]);
+                }
+            }
+        }
+        return world;
+    }
+
+    byte[] row(byte[] cells, int row) {
+        return Arrays.copyOfRange(cells, row * size, (row + 1) * size);
+    }
+
+    // ---------- Test ------------------------
+
+    // Checks the halos each worker got, its unsatisfied against a scan of the whole
+    // world in one process, then the segregation reached against Headless scan=parallel
+    void test() throws IOException {
+        try {
+            open();
+            boolean halos = true;
+            boolean counts = true;
+            for (int t = 0; t < 20; t++) {
+                byte[][] before = cells();
+                long[] expected = new long[workers];
+                for (int i : ParallelScan.unsatisfied(world(before), threshold, ForkJoinPool.commonPool())) {
+                    int row = i / size;
+                    int w = 0;
+                    while (row >= fromRow(w + 1)) {
+                        w++;
+                    }
+                    expected[w]++;
+                }
+                tick();
+                counts &= Arrays.equals(expected, unsatisfied);
+                byte[][] after = cells();
+                // Halos are the rows next to the band before the tick, empty at the edges
+                for (int i = 0; i < workers; i++) {
+                    byte[] above = i > 0 ? row(before[i - 1], rows(i - 1)) : empty;
+                    byte[] below = i < workers - 1 ? row(before[i + 1], 1) : empty;
+                    halos &= Arrays.equals(row(after[i], 0), above)
+                            && Arrays.equals(row(after[i], rows(i) + 1), below);
+                }
+            }
+            out.println(halos);
+            out.println(counts);
+            String why = run();
+            double segregation = segregation();
+            Simulation whole = new Simulation(world(cells()), threshold, new Random(seed), Simulation.Scan.PARALLEL);
+            out.println(Math.abs(segregation - whole.segregation()) < 1e-9);
+
+            Headless headless = new Headless();
+            Random hRand = new Random(seed);
+            Grid hWorld = Simulation.createWorld(dist, new ByteGrid(size), hRand);
+            Simulation sim = new Simulation(hWorld, threshold, hRand, Simulation.Scan.PARALLEL);
+            headless.maxTicks = maxTicks;
+            headless.plateau = plateau;
+            String hWhy = headless.run(sim, Headless.NO_METRICS);
+            out.printf(Locale.ROOT, "%s, %s: %.4f against %.4f%n", why, hWhy, segregation, sim.segregation());
+            out.println(Math.abs(segregation - sim.segregation()) < 0.02);
+        } finally {
+            close();
+        }
+    }
+
+    // Take m at random (without replacement) from the counts, returns how many from each.
+    // One hypergeometric draw per count: how many of the m come from this one,
+    // of those not yet drawn from.
+    long[] draw(long[] counts, long m) {
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        long[] taken = new long[counts.length];
+        for (int i = 0; i < counts.length && m > 0; i++) {
+            long x = i == counts.length - 1 ? m : hypergeometric(total, counts[i], m, rand);
+            total -= counts[i];
+            counts[i] -= x;
+            taken[i] = x;
+            m -= x;
+        }
+        return taken;
+    }
+
+    // Number of good ones among 'draws' taken without replacement from 'total',
+    // of which 'good' are good. By inversion, starting at the most likely number
+    // and going outwards (the more likely side first), so it takes about a
+    // standard deviation of steps, not 'draws'.
+    static long hypergeometric(long total, long good, long draws, Random rand) {
+        long lo = Math.max(0, draws - (total - good));
+        long hi = Math.min(good, draws);
+        if (lo == hi) {
+            return lo;
+        }
+        long mode = Math.max(lo, Math.min(hi, (long) ((draws + 1.0) * (good + 1.0) / (total + 2.0))));
+        double pMode = Math.exp(logChoose(good, mode) + logChoose(total - good, draws - mode)
+                - logChoose(total, draws));
+        double u = rand.nextDouble() - pMode;
+        long up = mode, down = mode;
+        double pUp = pMode, pDown = pMode;
+        while (u > 0) {
+            // p(k + 1) = p(k) * ratio(k)
+            double nextUp = up < hi ? pUp * ratio(total, good, draws, up) : 0;
+            double nextDown = down > lo ? pDown / ratio(total, good, draws, down - 1) : 0;
+            if (nextUp == 0 && nextDown == 0) {
+                return mode;   // Only rounding left
+            }
+            if (nextUp >= nextDown) {
+                pUp = nextUp;
+                u -= pUp;
+                if (u <= 0) {
+                    return up + 1;
+                }
+                up++;
+            } else {
+                pDown = nextDown;
+                u -= pDown;
+                if (u <= 0) {
+                    return down - 1;
+                }
+                down--;
+            }
+        }
+        return mode;
+    }
+
+    // p(k + 1) / p(k) for the hypergeometric distribution
+    static double ratio(long total, long good, long draws, long k) {
+        return (double) (good - k) * (draws - k) / ((double) (k + 1) * (total - good - draws + k + 1));
+    }
+
+    static double logChoose(long n, long k) {
+        return logFactorial(n) - logFactorial(k) - logFactorial(n - k);
+    }
+
+    static final double[] LOG_FACTORIAL = new double[256];
+
+    static {
+        for (int i = 1; i < LOG_FACTORIAL.length; i++) {
+            LOG_FACTORIAL[i] = LOG_FACTORIAL[i - 1] + Math.log(i);
+        }
+    }
+
+    // ln(n!), Stirling's series above the table (error below 1e-15 relative there)
+    static double logFactorial(long n) {
+        if (n < LOG_FACTORIAL.length) {
+            return LOG_FACTORIAL[(int) n];
+        }
+        double x = n;
+        double inv = 1 / x;
+        double inv2 = inv * inv;
+        return x * Math.log(x) - x + 0.5 * Math.log(2 * Math.PI * x)
+                + inv * (1.0 / 12 - inv2 * (1.0 / 360 - inv2 / 1260));
+    }
+
+    void readArgs(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "workers":
+                    workers = Integer.parseInt(value);
+                    break;
+                case "n":
+                    nLocations = Long.parseLong(value);
+                    break;
+                case "dist":
+                    String[] parts = value.split(",");
+                    dist = new double[]{Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+                            Double.parseDouble(parts[2])};
+                    break;
+                case "threshold":
+                    threshold = Double.parseDouble(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "ticks":
+                    maxTicks = Long.parseLong(value);
+                    break;
+                case "plateau":
+                    plateau = Long.parseLong(value);
+                    break;
+                case "heap":
+                    heap = value;
+                    break;
+                case "test":
+                    test = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+        }
+    }
+}
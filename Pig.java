@@ -35,34 +35,30 @@ public class Pig {
         current = getCurrentPlayer(players);   // TODO Set random player to start - Done by me
 
         // TODO Game logic, using small step, functional decomposition - Done by me
-        while (!aborted){
+        // The rules are in PigGame (as for PigSim and PigServer), the players show its state
+        PigGame game = new PigGame(winPts, getNames(players), indexOf(players, current));
+        while (!game.over){
             String choice = getPlayerChoice(current);
 
             if (choice.equals("r")){
                 int roll = rollDice();
-                current.roundPts += roll;
+                game.roll(roll);
+                copyState(game, players);
                 roundMsg(roll, current);
 
                 if (roll == 1){
-                    current.roundPts = 0;
                     statusMsg(players);
-                    current = getNextPlayer(players, current);
-                } else if (current.totalPts + current.roundPts >= winPts) {
-                    current.totalPts += current.roundPts;
-                    break;
+                    current = players[game.current];
                 }
 
             } else if (choice.equals("n")) {
-                current.totalPts += current.roundPts;
-                current.roundPts = 0;
+                game.hold();
+                copyState(game, players);
                 statusMsg(players);
-                if (current.totalPts >= winPts){
-                    break;
-                }
-                current = getNextPlayer(players, current);
+                current = players[game.current];
             } else if (choice.equals("q")) {
+                game.quit();
                 aborted = true;
-                break;
             }
 
 
@@ -95,6 +91,27 @@ public class Pig {
         }
         return current;
     }
+    String[] getNames(Player[] players){
+        String[] names = new String[players.length];
+        for (int i = 0; i < players.length; i++){
+            names[i] = players[i].name;
+        }
+        return names;
+    }
+    int indexOf(Player[] players, Player player){
+        int i = 0;
+        while (players[i] != player){
+            i++;
+        }
+        return i;
+    }
+    // Points of the game into the players
+    void copyState(PigGame game, Player[] players){
+        for (int i = 0; i < players.length; i++){
+            players[i].totalPts = game.totalPts[i];
+            players[i].roundPts = i == game.current ? game.roundPts : 0;
+        }
+    }
     boolean isWinner(Player[] players, int winPts){
         for (Player p : players){
             if (p.totalPts >= winPts){
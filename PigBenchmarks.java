@@ -0,0 +1,59 @@
+import java.util.SplittableRandom;
+import java.util.function.IntSupplier;
+
+/*
+ *  Pig workloads for the JMH benchmarks (src/jmh/java/bench), handed
+ *  over as in NeighboursBenchmarks.
+ */
+public class PigBenchmarks {
+
+    static final int ROLLS = 1000;
+
+    final Pig pig = new Pig();
+    final SplittableRandom rng = new SplittableRandom(1);
+    final DiceSource dice = new DiceSource(new SplittableRandom(1));
+    final PigGame game = new PigGame(100, new String[2], 0);
+
+    // ROLLS rolls: Pig's shared Random, a SplittableRandom, the same in bulk
+
+    public IntSupplier rollDice() {
+        return () -> {
+            int sum = 0;
+            for (int i = 0; i < ROLLS; i++) {
+                sum += pig.rollDice();
+            }
+            return sum;
+        };
+    }
+
+    public IntSupplier nextInt() {
+        return () -> {
+            int sum = 0;
+            for (int i = 0; i < ROLLS; i++) {
+                sum += rng.nextInt(6) + 1;
+            }
+            return sum;
+        };
+    }
+
+    public IntSupplier diceSource() {
+        return () -> {
+            int sum = 0;
+            for (int i = 0; i < ROLLS; i++) {
+                sum += dice.roll();
+            }
+            return sum;
+        };
+    }
+
+    // One game to 100 points with the dice of Pig, both players hold at 20
+    public IntSupplier game() {
+        return () -> {
+            game.reset(pig.rand.nextInt(2));
+            while (!(game.roundPts >= 20 ? game.hold() : game.roll(pig.rollDice()))) {
+                // Until won
+            }
+            return game.current;
+        };
+    }
+}
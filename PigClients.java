@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/*
+ *  Scripted players for PigServer, to test it and load it.
+ *
+ *  Opens players connections for each of 'tables' tables and plays one
+ *  game per table: hold at HOLD_AT round points, else roll. A roll that
+ *  wins ends the game (OVER follows), so no move is sent after it. All
+ *  connections are non-blocking in one thread, like the server.
+ *  The round trip from sending a move to getting its ROLL or HOLD back
+ *  is recorded. Every line must be as the protocol says, else it fails.
+ *
+ *  Usage:
+ *    java PigClients host port tables [players]
+ */
+public class PigClients {
+
+    public static void main(String[] args) throws IOException {
+        PigClients clients = new PigClients(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                args.length > 3 ? Integer.parseInt(args[3]) : 2);
+        clients.run();
+        System.out.println(clients.games + " games, round trip: " + clients.latency);
+    }
+
+    static final int HOLD_AT = 10;
+
+    final String host;
+    final int port;
+    final int tables;
+    final int players;
+    final PigServer.Latency latency = new PigServer.Latency();
+    long games;
+
+    PigClients(String host, int port, int tables, int players) {
+        this.host = host;
+        this.port = port;
+        this.tables = tables;
+        this.players = players;
+    }
+
+    static class Client {
+        final SocketChannel channel;
+        final String table;
+        final String name;
+        final ByteBuffer in = ByteBuffer.allocate(256);
+        final ByteBuffer out = ByteBuffer.allocate(64);
+        int winPts;        // From START
+        int totalPts;      // From own HOLD
+        int roundPts;
+        long sent;         // Time the last move was sent, 0 if none waiting
+        boolean done;
+
+        Client(SocketChannel channel, String table, String name) {
+            this.channel = channel;
+            this.table = table;
+            this.name = name;
+        }
+    }
+
+    void run() throws IOException {
+        try (Selector selector = Selector.open()) {
+            int open = 0;
+            for (int t = 0; t < tables; t++) {
+                for (int p = 0; p < players; p++) {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.connect(new InetSocketAddress(host, port));
+                    Client client = new Client(channel, "t" + t, "p" + p);
+                    channel.register(selector, SelectionKey.OP_CONNECT, client);
+                    open++;
+                }
+            }
+            while (open > 0) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client client = (Client) key.attachment();
+                    if (key.isConnectable()) {
+                        client.channel.finishConnect();
+                        key.interestOps(SelectionKey.OP_READ);
+                        send(client, "JOIN " + client.table + " " + client.name);
+                    } else if (key.isReadable()) {
+                        if (client.channel.read(client.in) < 0) {
+                            throw new IllegalStateException(client.name + "@" + client.table + " closed by server");
+                        }
+                        lines(client);
+                        if (client.done) {
+                            client.channel.close();
+                            open--;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    void lines(Client client) throws IOException {
+        ByteBuffer in = client.in;
+        in.flip();
+        int start = 0;
+        for (int i = 0; i < in.limit() && !client.done; i++) {
+            if (in.get(i) == '\n') {
+                message(client, PigServer.line(in, start, i).split(" "));
+                start = i + 1;
+            }
+        }
+        in.position(start);
+        in.compact();
+    }
+
+    void message(Client client, String[] words) throws IOException {
+        boolean mine = words.length > 1 && words[1].equals(client.name);
+        switch (words[0]) {
+            case "WAIT":
+                break;
+            case "START":
+                client.winPts = Integer.parseInt(words[1]);
+                break;
+            case "TURN":
+                if (mine) {
+                    client.roundPts = 0;
+                    move(client);
+                }
+                break;
+            case "ROLL":
+                if (mine) {
+                    done(client);
+                    client.roundPts = Integer.parseInt(words[3]);
+                    if (!words[2].equals("1") && client.totalPts + client.roundPts < client.winPts) {
+                        move(client);    // Still my turn, else I won and OVER follows
+                    }
+                }
+                break;
+            case "HOLD":
+                if (mine) {
+                    done(client);
+                    client.totalPts = Integer.parseInt(words[2]);
+                }
+                break;
+            case "OVER":
+                client.done = true;
+                if (client.name.equals("p0")) {
+                    games++;
+                }
+                break;
+            default:
+                throw new IllegalStateException(client.name + "@" + client.table + " got " + String.join(" ", words));
+        }
+    }
+
+    void move(Client client) throws IOException {
+        client.sent = System.nanoTime();
+        send(client, client.roundPts < HOLD_AT ? "r" : "n");
+    }
+
+    void done(Client client) {
+        if (client.sent == 0) {
+            throw new IllegalStateException(client.name + "@" + client.table + " answer to no move");
+        }
+        latency.add(System.nanoTime() - client.sent);
+        client.sent = 0;
+    }
+
+    // Moves are tiny, the socket always takes them
+    void send(Client client, String message) throws IOException {
+        client.out.clear();
+        for (int i = 0; i < message.length(); i++) {
+            client.out.put((byte) message.charAt(i));
+        }
+        client.out.put((byte) '\n');
+        client.out.flip();
+        while (client.out.hasRemaining()) {
+            client.channel.write(client.out);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.Arrays;
+
+/*
+ *  The state and rules of one Pig game, without any I/O. The only copy
+ *  of the rules, used by Pig.program(), PigSim and PigServer.
+ *
+ *  A 1 loses the round points and the turn goes to the next player,
+ *  reaching winPts with a roll wins at once, holding adds the round
+ *  points and the turn goes to the next player (or wins).
+ *  The caller rolls the dice and shows what happened.
+ */
+class PigGame {
+
+    final int winPts;
+    final String[] names;
+    final int[] totalPts;
+    int current;            // Index of the player in turn
+    int roundPts;
+    boolean over;           // Won or aborted
+    boolean aborted;
+
+    PigGame(int winPts, String[] names, int first) {
+        this.winPts = winPts;
+        this.names = names;
+        this.totalPts = new int[names.length];
+        this.current = first;
+    }
+
+    // A new game with the same players, nothing allocated
+    void reset(int first) {
+        Arrays.fill(totalPts, 0);
+        current = first;
+        roundPts = 0;
+        over = false;
+        aborted = false;
+    }
+
+    // "r", returns true if the player won
+    boolean roll(int roll) {
+        roundPts += roll;
+        if (roll == 1) {
+            roundPts = 0;
+            current = next();
+        } else if (totalPts[current] + roundPts >= winPts) {
+            totalPts[current] += roundPts;
+            over = true;
+        }
+        return over;
+    }
+
+    // "n", returns true if the player won
+    boolean hold() {
+        totalPts[current] += roundPts;
+        roundPts = 0;
+        if (totalPts[current] >= winPts) {
+            over = true;
+        } else {
+            current = next();
+        }
+        return over;
+    }
+
+    // "q"
+    void quit() {
+        aborted = true;
+        over = true;
+    }
+
+    // As Pig.getNextPlayer
+    int next() {
+        return current + 1 < names.length ? current + 1 : 0;
+    }
+
+    String currentName() {
+        return names[current];
+    }
+}
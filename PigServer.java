@@ -0,0 +1,458 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static java.lang.System.*;
+
+/*
+ *  Many Pig games (tables) at once over local sockets.
+ *
+ *  The game state is in PigGame, this class only does I/O. All
+ *  connections are non-blocking and served by one thread with a
+ *  Selector: a table is a small state machine that moves on when a line
+ *  comes in, so there is no thread per game and thousands of tables take
+ *  little memory (a PigGame and two small buffers per player).
+ *
+ *  Protocol, one line per message.
+ *  Client to server:
+ *    JOIN <table> <name>     sit down, the game starts when the table is full
+ *    r / n / q               roll, next (hold), quit, as in Pig.program()
+ *  Server to client (to all at the table unless noted):
+ *    WAIT <table> <joined>/<players>   (only to the one joining)
+ *    START <winPts> <names...>
+ *    TURN <name>
+ *    ROLL <name> <roll> <roundPts>     roundPts is 0 after a 1
+ *    HOLD <name> <totalPts>
+ *    OVER <name> <totalPts>            the winner
+ *    ABORTED <name>                    quit or disconnected
+ *    ERR <message>                     (only to the sender)
+ *  After OVER or ABORTED the connection may JOIN again.
+ *
+ *  Lines wait in a buffer per connection while the socket doesn't take
+ *  them, at most MAX_OUT bytes: a client that doesn't read is closed
+ *  (its game ABORTED), so it can't make the server run out of memory.
+ *
+ *  For every move the time from reading it to having written all
+ *  answers is recorded, see Latency.
+ *
+ *  Usage (all optional):
+ *    java PigServer port=7777 players=2 win=20 seed=1
+ *    java PigServer test=1000     runs 1000 tables of PigClients against a server in this JVM
+ */
+public class PigServer {
+
+    public static void main(String[] args) throws Exception {
+        new PigServer().program(args);
+    }
+
+    // Parameters, winPts as in Pig.program()
+    int port = 7777;
+    int players = 2;
+    int winPts = 20;
+    long seed = 1;
+    int testTables = 0;
+
+    void program(String[] args) throws Exception {
+        readArgs(args);
+        if (testTables == 0) {
+            open(port);
+            out.println("Pig server on port " + server.socket().getLocalPort());
+            serve();
+            return;
+        }
+        open(0);
+        Thread thread = new Thread(() -> {
+            try {
+                serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, "pig-server");
+        thread.start();
+        long start = nanoTime();
+        PigClients clients = new PigClients("localhost", server.socket().getLocalPort(), testTables, players);
+        clients.run();
+        double seconds = (nanoTime() - start) / 1e9;
+        stop();
+        thread.join();
+        out.printf(Locale.ROOT, "%d tables, %d games in %.2f s%n", testTables, clients.games, seconds);
+        out.println("Server, read to written: " + latency);
+        out.println("Clients, round trip:     " + clients.latency);
+    }
+
+    // ---------- Server -----------------------
+
+    Selector selector;
+    ServerSocketChannel server;
+    volatile boolean running;
+    final Map<String, Table> tables = new HashMap<>();
+    DiceSource dice;
+    SplittableRandom rand;
+    final Latency latency = new Latency();
+    long games;
+
+    // The players at a table, game is null until it is full
+    static class Table {
+        final String name;
+        final Conn[] seats;
+        int joined;
+        PigGame game;
+
+        Table(String name, int players) {
+            this.name = name;
+            this.seats = new Conn[players];
+        }
+    }
+
+    static final int MAX_OUT = 1 << 16;
+
+    static class Conn {
+        final SocketChannel channel;
+        ByteBuffer in = ByteBuffer.allocate(128);
+        ByteBuffer out = ByteBuffer.allocate(256);
+        String name;
+        Table table;
+        int seat;
+
+        Conn(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    void open(int port) throws IOException {
+        rand = new SplittableRandom(seed);
+        dice = new DiceSource(rand);
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", port), 4096);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    void serve() throws IOException {
+        long lastLog = nanoTime();
+        while (running) {
+            selector.select(1000);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        if (key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush((Conn) key.attachment());
+                        }
+                    }
+                } catch (IOException e) {
+                    close((Conn) key.attachment());
+                }
+            }
+            if (nanoTime() - lastLog > 10_000_000_000L) {
+                out.println(tables.size() + " tables, " + games + " games, " + latency);
+                lastLog = nanoTime();
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Conn(channel));
+        }
+    }
+
+    void read(SelectionKey key) throws IOException {
+        Conn conn = (Conn) key.attachment();
+        if (conn.channel.read(conn.in) < 0) {
+            close(conn);
+            return;
+        }
+        long start = nanoTime();
+        ByteBuffer in = conn.in;
+        in.flip();
+        int lineStart = 0;
+        for (int i = 0; i < in.limit() && conn.channel.isOpen(); i++) {
+            if (in.get(i) == '\n') {
+                boolean move = conn.table != null && conn.table.game != null;
+                handle(conn, line(in, lineStart, i));
+                lineStart = i + 1;
+                if (move) {
+                    latency.add(nanoTime() - start);
+                }
+            }
+        }
+        in.position(lineStart);
+        in.compact();
+        if (!in.hasRemaining()) {
+            in.clear();
+            send(conn, "ERR line too long");
+        }
+    }
+
+    static String line(ByteBuffer in, int from, int to) {
+        if (to > from && in.get(to - 1) == '\r') {
+            to--;
+        }
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++) {
+            chars[i - from] = (char) (in.get(i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    void handle(Conn conn, String line) {
+        if (conn.table == null) {
+            join(conn, line);
+            return;
+        }
+        Table table = conn.table;
+        PigGame game = table.game;
+        if (game == null) {
+            send(conn, "ERR waiting for players");
+            return;
+        }
+        if (conn.seat != game.current) {
+            send(conn, "ERR not your turn");
+            return;
+        }
+        String name = game.currentName();
+        boolean won;
+        switch (line) {
+            case "r":
+                int roll = dice.roll();
+                won = game.roll(roll);
+                broadcast(table, "ROLL " + name + " " + roll + " " + game.roundPts);
+                if (won) {
+                    end(table, "OVER " + name + " " + game.totalPts[game.current]);
+                } else if (roll == 1) {
+                    broadcast(table, "TURN " + game.currentName());
+                }
+                break;
+            case "n":
+                int seat = game.current;
+                won = game.hold();
+                broadcast(table, "HOLD " + name + " " + game.totalPts[seat]);
+                if (won) {
+                    end(table, "OVER " + name + " " + game.totalPts[seat]);
+                } else {
+                    broadcast(table, "TURN " + game.currentName());
+                }
+                break;
+            case "q":
+                game.quit();
+                end(table, "ABORTED " + name);
+                break;
+            default:
+                send(conn, "ERR expected r, n or q");
+        }
+    }
+
+    void join(Conn conn, String line) {
+        String[] words = line.split(" ");
+        if (words.length != 3 || !words[0].equals("JOIN")) {
+            send(conn, "ERR expected JOIN <table> <name>");
+            return;
+        }
+        Table table = tables.computeIfAbsent(words[1], name -> new Table(name, players));
+        if (table.game != null) {
+            send(conn, "ERR table is playing");
+            return;
+        }
+        conn.name = words[2];
+        conn.table = table;
+        conn.seat = table.joined;
+        table.seats[table.joined++] = conn;
+        send(conn, "WAIT " + table.name + " " + table.joined + "/" + players);
+        if (table.joined == players) {
+            String[] names = new String[players];
+            for (int i = 0; i < players; i++) {
+                names[i] = table.seats[i].name;
+            }
+            // Random first player, as Pig.getCurrentPlayer
+            table.game = new PigGame(winPts, names, rand.nextInt(players));
+            broadcast(table, "START " + winPts + " " + String.join(" ", names));
+            broadcast(table, "TURN " + table.game.currentName());
+        }
+    }
+
+    void end(Table table, String message) {
+        broadcast(table, message);
+        for (Conn c : table.seats) {
+            if (c != null) {
+                c.table = null;
+            }
+        }
+        tables.remove(table.name);
+        games++;
+    }
+
+    void close(Conn conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.channel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        Table table = conn.table;
+        if (table == null) {
+            return;
+        }
+        conn.table = null;
+        if (table.game != null && !table.game.over) {
+            table.game.quit();
+            end(table, "ABORTED " + conn.name);
+        } else if (table.game == null) {
+            // Left before the start, free the seat
+            for (int i = conn.seat + 1; i < table.joined; i++) {
+                table.seats[i - 1] = table.seats[i];
+                table.seats[i - 1].seat = i - 1;
+            }
+            table.seats[--table.joined] = null;
+            if (table.joined == 0) {
+                tables.remove(table.name);
+            }
+        }
+    }
+
+    void broadcast(Table table, String message) {
+        for (Conn c : table.seats) {
+            if (c != null && c.channel.isOpen()) {
+                send(c, message);
+            }
+        }
+    }
+
+    // Writes at once if the socket takes it, else when it becomes writable
+    void send(Conn conn, String message) {
+        int n = message.length() + 1;
+        if (conn.out.position() + n > MAX_OUT) {
+            close(conn);    // Not reading
+            return;
+        }
+        if (conn.out.remaining() < n) {
+            int size = Math.min(MAX_OUT, Math.max(2 * conn.out.capacity(), conn.out.position() + n));
+            ByteBuffer bigger = ByteBuffer.allocate(size);
+            conn.out.flip();
+            bigger.put(conn.out);
+            conn.out = bigger;
+        }
+        for (int i = 0; i < message.length(); i++) {
+            conn.out.put((byte) message.charAt(i));
+        }
+        conn.out.put((byte) '\n');
+        try {
+            flush(conn);
+        } catch (IOException e) {
+            // Seen as closed on the next read
+        }
+    }
+
+    void flush(Conn conn) throws IOException {
+        conn.out.flip();
+        conn.channel.write(conn.out);
+        conn.out.compact();
+        SelectionKey key = conn.channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            key.interestOps(conn.out.position() > 0
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    // ---------- Latency -----------------------
+
+    // Histogram of nanos with 8 buckets per power of 2 (1/8 resolution), no allocation per sample
+    static class Latency {
+        final long[] counts = new long[64 * 8];
+        long n;
+        long max;
+
+        void add(long nanos) {
+            nanos = Math.max(1, nanos);
+            int log = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = log < 3 ? 0 : (int) (nanos >>> (log - 3)) & 7;
+            counts[log * 8 + sub]++;
+            n++;
+            max = Math.max(max, nanos);
+        }
+
+        // Lower bound of the bucket holding quantile q
+        long quantile(double q) {
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank && counts[b] > 0) {
+                    int log = b / 8;
+                    return log < 3 ? 1L << log : (8L + b % 8) << (log - 3);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "moves=%d p50=%.1f us p99=%.1f us p99.9=%.1f us max=%.1f us",
+                    n, quantile(0.5) / 1e3, quantile(0.99) / 1e3, quantile(0.999) / 1e3, max / 1e3);
+        }
+    }
+
+    void readArgs(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "players":
+                    players = Integer.parseInt(value);
+                    break;
+                case "win":
+                    winPts = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "test":
+                    testTables = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+        }
+    }
+}
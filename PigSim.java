@@ -0,0 +1,252 @@
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.random.RandomGenerator;
+
+import static java.lang.System.*;
+
+/*
+ *  Plays Pig between computer players (see Strategy), no I/O, to find
+ *  out how often each strategy wins.
+ *
+ *  The rules are those of Pig.program(), played by a PigGame (one per
+ *  block of games, reset for each), a random player starts. The dice
+ *  come from a DiceSource on the given RandomGenerator (23 rolls per
+ *  random long), so no shared Random is used.
+ *  Holding with 0 round points is allowed in program(), but a game
+ *  where everybody does that never ends, so here the first roll of a
+ *  turn is always made.
+ *
+ *  The games are played on all cores (playParallel). They are split in
+ *  blocks of BLOCK games, and block b always uses the b:th SplittableRandom
+ *  split from the seed, whatever thread plays it. Every task counts its
+ *  own wins and the counts are added up at the end, so the result is the
+ *  same for a seed whatever the number of threads.
+ *
+ *  Usage (all optional):
+ *    java PigSim players=hold20,optimalish games=10000000 win=20 seed=1 threads=8
+ *  where players are names for Strategy.named().
+ *    java PigSim test=true     checks the dice of DiceSource
+ */
+public class PigSim {
+
+    public static void main(String[] args) {
+        new PigSim().program(args);
+    }
+
+    // Parameters, winPts as in Pig.program()
+    String[] names = {"hold20", "optimalish"};
+    long games = 10_000_000;
+    int winPts = 20;
+    long seed = 1;
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean test;
+
+    void program(String[] args) {
+        readArgs(args);
+        if (test) {
+            test();
+            return;
+        }
+        Strategy[] strategies = new Strategy[names.length];
+        for (int i = 0; i < names.length; i++) {
+            strategies[i] = Strategy.named(names[i], winPts);
+        }
+        long start = nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long[] wins = playParallel(strategies, winPts, games, seed, pool);
+        pool.shutdown();
+        double seconds = (nanoTime() - start) / 1e9;
+        report(wins, seconds);
+    }
+
+    void report(long[] wins, double seconds) {
+        out.printf(Locale.ROOT, "%d games to %d in %.2f s on %d threads (%.0f games/s)%n",
+                games, winPts, seconds, threads, games / seconds);
+        out.printf("%-8s %-14s %14s %10s %22s%n", "Player", "Strategy", "Wins", "Win rate", "95% interval");
+        for (int i = 0; i < wins.length; i++) {
+            double[] ci = wilson(wins[i], games);
+            out.printf(Locale.ROOT, "%-8d %-14s %14d %10.5f %10.5f - %-10.5f%n",
+                    i + 1, names[i], wins[i], (double) wins[i] / games, ci[0], ci[1]);
+        }
+    }
+
+    // 95% confidence interval for a win rate (Wilson score interval)
+    static double[] wilson(long wins, long games) {
+        double z = 1.959964;
+        double p = (double) wins / games;
+        double d = 1 + z * z / games;
+        double center = (p + z * z / (2.0 * games)) / d;
+        double half = z * Math.sqrt(p * (1 - p) / games + z * z / (4.0 * games * games)) / d;
+        return new double[]{center - half, center + half};
+    }
+
+    // ---------- Game logic -----------------------
+
+    static final int BLOCK = 1 << 16;   // Games per random stream
+
+    // Wins per player, the games played in pool
+    static long[] playParallel(Strategy[] strategies, int winPts, long games, long seed, ForkJoinPool pool) {
+        int blocks = (int) ((games + BLOCK - 1) / BLOCK);
+        // Split in block order here, so a block's stream doesn't depend on the threads
+        SplittableRandom master = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[blocks];
+        for (int b = 0; b < blocks; b++) {
+            streams[b] = master.split();
+        }
+        if (blocks == 0) {
+            return new long[strategies.length];
+        }
+        return pool.invoke(new Games(strategies, winPts, games, streams, 0, blocks));
+    }
+
+    // Plays blocks [from, to), splits in halves down to one block per task
+    static class Games extends RecursiveTask<long[]> {
+        final Strategy[] strategies;
+        final int winPts;
+        final long games;
+        final SplittableRandom[] streams;
+        final int from, to;
+
+        Games(Strategy[] strategies, int winPts, long games, SplittableRandom[] streams, int from, int to) {
+            this.strategies = strategies;
+            this.winPts = winPts;
+            this.games = games;
+            this.streams = streams;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from == 1) {
+                long n = Math.min(BLOCK, games - (long) from * BLOCK);
+                return play(strategies, winPts, n, streams[from]);
+            }
+            int mid = (from + to) >>> 1;
+            Games left = new Games(strategies, winPts, games, streams, from, mid);
+            left.fork();
+            long[] wins = new Games(strategies, winPts, games, streams, mid, to).compute();
+            long[] leftWins = left.join();
+            for (int i = 0; i < wins.length; i++) {
+                wins[i] += leftWins[i];
+            }
+            return wins;
+        }
+    }
+
+    // Wins per player for a number of games
+    static long[] play(Strategy[] strategies, int winPts, long games, RandomGenerator rng) {
+        long[] wins = new long[strategies.length];
+        PigGame game = new PigGame(winPts, new String[strategies.length], 0);
+        int[] opponents = new int[strategies.length - 1];
+        DiceSource dice = new DiceSource(rng);
+        for (long g = 0; g < games; g++) {
+            wins[play(strategies, game, rng, dice, opponents)]++;
+        }
+        return wins;
+    }
+
+    // One game, returns the winner. game and opponents are scratch.
+    static int play(Strategy[] strategies, PigGame game, RandomGenerator rng, DiceSource dice, int[] opponents) {
+        game.reset(rng.nextInt(strategies.length));
+        int turn = game.current;
+        opponents(game, opponents);
+        while (true) {
+            int current = game.current;
+            if (current != turn) {
+                turn = current;
+                opponents(game, opponents);
+            }
+            boolean won = game.roundPts == 0
+                    || strategies[current].roll(game.totalPts[current], game.roundPts, opponents, rng)
+                    ? game.roll(dice.roll()) : game.hold();
+            if (won) {
+                return current;
+            }
+        }
+    }
+
+    // The other players' totals, starting with the next player
+    static void opponents(PigGame game, int[] opponents) {
+        int p = game.current;
+        for (int i = 0; i < opponents.length; i++) {
+            p = p + 1 < game.totalPts.length ? p + 1 : 0;
+            opponents[i] = game.totalPts[p];
+        }
+    }
+
+    // ---------- Test ------------------------
+
+    // DiceSource.LIMIT is the biggest multiple of 6^23 below 2^62, and the rolls
+    // and pairs of rolls one after the other are uniform (chi-square, 99.9% bounds)
+    void test() {
+        long sixPow23 = 1;
+        for (int d = 0; d < DiceSource.DIGITS; d++) {
+            sixPow23 *= 6;
+        }
+        out.println(sixPow23 == DiceSource.SIX_POW_23 && DiceSource.LIMIT % sixPow23 == 0
+                && DiceSource.LIMIT < 1L << 62 && DiceSource.LIMIT + sixPow23 > 1L << 62);
+
+        DiceSource dice = new DiceSource(new SplittableRandom(seed));
+        long[] rolls = new long[6];
+        long[] pairs = new long[36];
+        int n = 6_000_000;
+        for (int i = 0; i < n; i++) {
+            int a = dice.roll() - 1;
+            int b = dice.roll() - 1;
+            rolls[a]++;
+            rolls[b]++;
+            pairs[6 * a + b]++;     // Pairs don't overlap, and cross the 23 rolls of a long
+        }
+        out.println(chiSquare(rolls, 2L * n) < 20.52);    // 5 degrees of freedom
+        out.println(chiSquare(pairs, n) < 66.62);         // 35
+    }
+
+    // Against all counts equal
+    static double chiSquare(long[] counts, long total) {
+        double expected = (double) total / counts.length;
+        double sum = 0;
+        for (long c : counts) {
+            sum += (c - expected) * (c - expected) / expected;
+        }
+        return sum;
+    }
+
+    void readArgs(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "players":
+                    names = value.split(",");
+                    break;
+                case "games":
+                    games = Long.parseLong(value);
+                    break;
+                case "win":
+                    winPts = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "test":
+                    test = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+        }
+        if (names.length < 2) {
+            throw new IllegalArgumentException("Need at least 2 players");
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+import static java.lang.System.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ *  Finds the optimal Pig policy for two players by value iteration.
+ *
+ *  A state is (i, j, k): my total, the opponent's total and my round
+ *  points, with i + k < winPts (else I've already won). win[i, j, k] is
+ *  the chance that the player to move wins, playing optimally:
+ *    roll: 1/6 (1 - win[j, i, 0]) + sum for r = 2..6 of 1/6 win[i, j, k + r]
+ *          (1 instead of win[...] if i + k + r >= winPts)
+ *    hold: 1 - win[j, i + k, 0]
+ *  and win is the best of the two (at k = 0 only roll, as in PigSim).
+ *
+ *  Sweeps are Jacobi style (new values only from the last sweep) so all
+ *  i can be done at the same time on all cores. Stops when no value
+ *  changed more than eps.
+ *
+ *  The policy is one bit per state (1 = roll), saved as a binary file:
+ *    int MAGIC, int VERSION, int winPts, int number of longs, the longs
+ *  OptimalStrategy maps the file and looks the bit up, nothing is solved
+ *  again.
+ *
+ *  Usage (all optional):
+ *    java PigSolver win=20 eps=1e-12 out=pig20.policy
+ *    java PigSolver test=true     checks the solution and the policy file
+ */
+public class PigSolver {
+
+    public static void main(String[] args) throws IOException {
+        new PigSolver().program(args);
+    }
+
+    static final int MAGIC = 0x50494750;   // "PIGP"
+    static final int VERSION = 1;
+    static final int HEADER = 16;          // Bytes
+
+    // Parameters, winPts as in Pig.program()
+    int winPts = 20;
+    double eps = 1e-12;
+    String outFile;
+    boolean test;
+
+    void program(String[] args) throws IOException {
+        readArgs(args);
+        if (test) {
+            test();
+            return;
+        }
+        long start = nanoTime();
+        Result result = solve(winPts, eps);
+        Path path = Paths.get(outFile != null ? outFile : file(winPts));
+        save(path, winPts, result.policy);
+        out.printf(Locale.ROOT, "Solved to %d in %d sweeps, %.2f s, saved %s%n",
+                winPts, result.sweeps, (nanoTime() - start) / 1e9, path);
+        out.printf(Locale.ROOT, "Chance to win when starting: %.6f%n", result.win[0]);
+    }
+
+    // Default file for a policy
+    static String file(int winPts) {
+        return "pig" + winPts + ".policy";
+    }
+
+    static class Result {
+        final double[] win;
+        final long[] policy;
+        final int sweeps;
+
+        Result(double[] win, long[] policy, int sweeps) {
+            this.win = win;
+            this.policy = policy;
+            this.sweeps = sweeps;
+        }
+    }
+
+    // Index of state (i, j, k), the same in win[] and in the policy bits
+    static int index(int winPts, int i, int j, int k) {
+        return (i * winPts + j) * winPts + k;
+    }
+
+    static Result solve(int winPts, double eps) {
+        int n = winPts * winPts * winPts;
+        double[] win = new double[n];
+        double[] next = new double[n];
+        double[] change = new double[winPts];   // Biggest change per i
+        int sweeps = 0;
+        double maxChange;
+        do {
+            double[] from = win;
+            double[] to = next;
+            IntStream.range(0, winPts).parallel().forEach(i ->
+                    change[i] = sweep(winPts, i, from, to));
+            maxChange = 0;
+            for (double c : change) {
+                maxChange = Math.max(maxChange, c);
+            }
+            win = to;
+            next = from;
+            sweeps++;
+        } while (maxChange > eps);
+
+        long[] policy = new long[(n + 63) / 64];
+        for (int i = 0; i < winPts; i++) {
+            for (int j = 0; j < winPts; j++) {
+                for (int k = 0; i + k < winPts; k++) {
+                    if (k == 0 || roll(winPts, win, i, j, k) > hold(winPts, win, i, j, k)) {
+                        int s = index(winPts, i, j, k);
+                        policy[s >>> 6] |= 1L << s;
+                    }
+                }
+            }
+        }
+        return new Result(win, policy, sweeps);
+    }
+
+    // New values for all states with my total i, returns the biggest change
+    static double sweep(int winPts, int i, double[] from, double[] to) {
+        double maxChange = 0;
+        for (int j = 0; j < winPts; j++) {
+            for (int k = 0; i + k < winPts; k++) {
+                double value = roll(winPts, from, i, j, k);
+                if (k > 0) {
+                    value = Math.max(value, hold(winPts, from, i, j, k));
+                }
+                int s = index(winPts, i, j, k);
+                maxChange = Math.max(maxChange, Math.abs(value - from[s]));
+                to[s] = value;
+            }
+        }
+        return maxChange;
+    }
+
+    static double roll(int winPts, double[] win, int i, int j, int k) {
+        double sum = 1 - win[index(winPts, j, i, 0)];
+        for (int r = 2; r <= 6; r++) {
+            sum += i + k + r >= winPts ? 1 : win[index(winPts, i, j, k + r)];
+        }
+        return sum / 6;
+    }
+
+    static double hold(int winPts, double[] win, int i, int j, int k) {
+        return 1 - win[index(winPts, j, i + k, 0)];
+    }
+
+    // ---------- Policy file -----------------------
+
+    static void save(Path path, int winPts, long[] policy) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + 8 * policy.length);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(winPts).putInt(policy.length);
+        buf.asLongBuffer().put(policy);
+        buf.rewind();
+        try (FileChannel ch = FileChannel.open(path, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+    }
+
+    // ---------- Test ------------------------
+
+    // The chance to win when starting to 100 is 0.5306 (Neller and Presser,
+    // "Optimal Play of the Dice Game Pig"), and a saved policy loads as the same bits
+    void test() throws IOException {
+        out.println(Math.abs(solve(100, 1e-9).win[0] - 0.5306) < 5e-5);
+
+        int winPts = 20;
+        long[] policy = solve(winPts, 1e-12).policy;
+        Path path = Files.createTempFile("pig", ".policy");
+        try {
+            save(path, winPts, policy);
+            OptimalStrategy loaded = OptimalStrategy.load(path);
+            boolean same = loaded.winPts == winPts && loaded.policy.remaining() == policy.length;
+            for (int s = 0; same && s < policy.length; s++) {
+                same = loaded.policy.get(s) == policy[s];
+            }
+            // And the lookup gives the bit of each state
+            int[] opponent = new int[1];
+            for (int i = 0; i < winPts; i++) {
+                for (int j = 0; j < winPts; j++) {
+                    for (int k = 0; i + k < winPts; k++) {
+                        opponent[0] = j;
+                        int s = index(winPts, i, j, k);
+                        same &= loaded.roll(i, k, opponent, null) == ((policy[s >>> 6] >>> s & 1) != 0);
+                    }
+                }
+            }
+            out.println(same);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    void readArgs(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "win":
+                    winPts = Integer.parseInt(value);
+                    break;
+                case "eps":
+                    eps = Double.parseDouble(value);
+                    break;
+                case "out":
+                    outFile = value;
+                    break;
+                case "test":
+                    test = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package calc;
+
+import java.util.Random;
+
+/*
+ *  Random expression texts, for the checks (ConcurrentCalculator) and
+ *  the benchmarks (CalcBenchmarks).
+ *
+ *  Numbers are 1-99, so a text can still divide by 0 ("5 / (3 - 3)").
+ */
+public class RandomExpressions {
+
+    // Random expression like "3 + (41 * 2) - 7 / 5"
+    public static String expression(int nTokens, Random rand) {
+        return expression(nTokens, rand, Rpn.NO_VARIABLES);
+    }
+
+    // As above, half of the operands variables if any are given, like "x + (41 * y) - 7 / x"
+    public static String expression(int nTokens, Random rand, String[] variables) {
+        StringBuilder sb = new StringBuilder();
+        int open = 0;
+        int count = 0;
+        while (true) {
+            if (count + 2 < nTokens && rand.nextInt(5) == 0) {
+                sb.append('(');
+                open++;
+                count++;
+                continue;
+            }
+            if (variables.length > 0 && rand.nextBoolean()) {
+                sb.append(variables[rand.nextInt(variables.length)]);
+            } else {
+                sb.append(1 + rand.nextInt(99));
+            }
+            count++;
+            while (open > 0 && rand.nextInt(3) == 0) {
+                sb.append(')');
+                open--;
+                count++;
+            }
+            if (count + open >= nTokens) {
+                break;
+            }
+            // Few ^ to keep the values finite
+            sb.append(' ').append("+-*/+-*/^".charAt(rand.nextInt(rand.nextInt(4) == 0 ? 9 : 8))).append(' ');
+            count++;
+        }
+        while (open-- > 0) {
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+}
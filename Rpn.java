@@ -0,0 +1,306 @@
+package calc;
+
+import java.util.Arrays;
+
+import static calc.Calculator.*;
+
+/*
+ *  Expression evaluation without Strings, regex or boxing.
+ *
+ *  compile() scans the chars once and builds the postfix program directly
+ *  (shunting-yard): an op code per step and, for numbers, the value.
+ *  run() evaluates the program on a double[] stack.
+ *
+ *  Gives the same results and the same errors as
+ *  evalPostfix(infix2Postfix(tokenize(expr))), also for bad input.
+ *  Variables (letters, digits and _, not starting with a digit) are only
+ *  accepted if they are declared in the call to compile(), any other
+ *  letter is OP_NOT_FOUND as before.
+ *
+ *  The arrays are reused between calls, so an Rpn must only be used
+ *  by one thread at a time. Rpn.local() gives each thread its own.
+ */
+public class Rpn {
+
+    // Op codes
+    static final byte NUM = 0;
+    static final byte ADD = 1;
+    static final byte SUB = 2;
+    static final byte MUL = 3;
+    static final byte DIV = 4;
+    static final byte POW = 5;
+    static final byte LEFT_PAREN = 6;   // Only on the operator stack
+    static final byte RIGHT_PAREN = 7;  // Never stored
+    static final byte VAR = 8;          // The value is the variable's number
+
+    // The compiled program
+    byte[] ops = new byte[32];
+    double[] values = new double[32];
+    int length;
+    int maxDepth;    // Stack size needed to run it
+    int depth;
+
+    // Scratch
+    byte[] opStack = new byte[16];
+    double[] stack = new double[16];
+
+    static final ThreadLocal<Rpn> LOCAL = ThreadLocal.withInitial(Rpn::new);
+
+    // This thread's Rpn, so scratch arrays are reused without sharing
+    static Rpn local() {
+        return LOCAL.get();
+    }
+
+    // Compile and run, same as Calculator.eval()
+    public double eval(CharSequence expr) {
+        if (expr.length() == 0) {
+            return Double.NaN;
+        }
+        compile(expr, 0, expr.length());
+        return run();
+    }
+
+    public void compile(CharSequence expr, int from, int to) {
+        compile(expr, from, to, NO_VARIABLES);
+    }
+
+    static final String[] NO_VARIABLES = {};
+
+    public void compile(CharSequence expr, int from, int to, String[] variables) {
+        length = 0;
+        maxDepth = 0;
+        depth = 0;
+        int nOps = 0;
+        // Errors from the parse step are only thrown when all chars are
+        // known to be valid, as tokenize() runs before infix2Postfix()
+        RuntimeException error = null;
+
+        int i = from;
+        while (i < to) {
+            char c = expr.charAt(i);
+            if (c == ' ') {
+                i++;
+            } else if (Character.isDigit(c)) {
+                int start = i;
+                boolean ascii = true;
+                long value = 0;
+                while (i < to && Character.isDigit(expr.charAt(i))) {
+                    char d = expr.charAt(i);
+                    ascii &= d >= '0' && d <= '9';
+                    value = value * 10 + (d - '0');
+                    i++;
+                }
+                if (error != null) {
+                    continue;
+                }
+                if (!ascii) {
+                    // Not matched by "\\d+" in infix2Postfix
+                    error = new RuntimeException(OP_NOT_FOUND);
+                    continue;
+                }
+                // Up to 15 digits fit exactly in a double, else parse as before
+                double d = i - start <= 15 ? value : Double.parseDouble(expr.subSequence(start, i).toString());
+                emit(NUM, d);
+            } else if (variables.length > 0 && isNameStart(c)) {
+                int start = i;
+                while (i < to && isNamePart(expr.charAt(i))) {
+                    i++;
+                }
+                int var = find(variables, expr, start, i);
+                if (var < 0) {
+                    throw new IllegalArgumentException(OP_NOT_FOUND);
+                }
+                if (error == null) {
+                    emit(VAR, var);
+                }
+            } else {
+                byte op = opCode(c);
+                if (op < 0) {
+                    throw new IllegalArgumentException(OP_NOT_FOUND);
+                }
+                i++;
+                if (error != null) {
+                    continue;
+                }
+                if (op == LEFT_PAREN) {
+                    opStack = push(opStack, nOps++, op);
+                } else if (op == RIGHT_PAREN) {
+                    while (nOps > 0 && opStack[nOps - 1] != LEFT_PAREN) {
+                        emit(opStack[--nOps], 0);
+                    }
+                    if (nOps == 0) {
+                        error = new IllegalArgumentException(MISSING_OPERATOR);
+                        continue;
+                    }
+                    nOps--;
+                } else {
+                    int prec = precedence(op);
+                    while (nOps > 0 && opStack[nOps - 1] != LEFT_PAREN
+                            && (precedence(opStack[nOps - 1]) > prec
+                            || (precedence(opStack[nOps - 1]) == prec && op != POW))) {
+                        emit(opStack[--nOps], 0);
+                    }
+                    opStack = push(opStack, nOps++, op);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        while (nOps > 0) {
+            byte op = opStack[--nOps];
+            if (op == LEFT_PAREN) {
+                throw new IllegalArgumentException(MISSING_OPERATOR);
+            }
+            emit(op, 0);
+        }
+    }
+
+    // The last compiled program as an immutable Expression
+    Expression toExpression(String text, String[] variables) {
+        return new Expression(text, variables.clone(), Arrays.copyOf(ops, length),
+                Arrays.copyOf(values, length), maxDepth);
+    }
+
+    // Run the last compiled program
+    public double run() {
+        return run(null);
+    }
+
+    // Run the last compiled program with values for the variables
+    public double run(double[] vars) {
+        if (stack.length < maxDepth) {
+            stack = new double[maxDepth];
+        }
+        return run(ops, values, length, stack, vars);
+    }
+
+    // Same checks, in the same order, as evalPostfix
+    static double run(byte[] ops, double[] values, int length, double[] stack, double[] vars) {
+        int sp = 0;
+        for (int i = 0; i < length; i++) {
+            byte op = ops[i];
+            if (op == NUM) {
+                stack[sp++] = values[i];
+                continue;
+            }
+            if (op == VAR) {
+                stack[sp++] = vars[(int) values[i]];
+                continue;
+            }
+            if (sp < 2) {
+                throw new IllegalArgumentException(MISSING_OPERAND);
+            }
+            double d1 = stack[--sp];
+            double d2 = stack[sp - 1];
+            stack[sp - 1] = apply(op, d1, d2);
+        }
+        if (sp == 0) {
+            throw new IllegalArgumentException(MISSING_OPERAND);
+        }
+        if (sp > 1) {
+            throw new IllegalArgumentException(MISSING_OPERATOR);
+        }
+        return stack[0];
+    }
+
+    // As Calculator.applyOperator, d1 is the top of the stack
+    static double apply(byte op, double d1, double d2) {
+        switch (op) {
+            case ADD:
+                return d1 + d2;
+            case SUB:
+                return d2 - d1;
+            case MUL:
+                return d1 * d2;
+            case DIV:
+                if (d1 == 0) {
+                    throw new IllegalArgumentException(DIV_BY_ZERO);
+                }
+                return d2 / d1;
+            case POW:
+                return Math.pow(d2, d1);
+        }
+        throw new RuntimeException(OP_NOT_FOUND);
+    }
+
+    static byte opCode(char c) {
+        switch (c) {
+            case '+':
+                return ADD;
+            case '-':
+                return SUB;
+            case '*':
+                return MUL;
+            case '/':
+                return DIV;
+            case '^':
+                return POW;
+            case '(':
+                return LEFT_PAREN;
+            case ')':
+                return RIGHT_PAREN;
+        }
+        return -1;
+    }
+
+    static int precedence(byte op) {
+        switch (op) {
+            case ADD:
+            case SUB:
+                return 2;
+            case MUL:
+            case DIV:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    static boolean isNamePart(char c) {
+        return isNameStart(c) || (c >= '0' && c <= '9');
+    }
+
+    // Index of the name expr[from, to) in names, -1 if not there
+    static int find(String[] names, CharSequence expr, int from, int to) {
+        for (int k = 0; k < names.length; k++) {
+            String name = names[k];
+            if (name.length() != to - from) {
+                continue;
+            }
+            int j = 0;
+            while (j < name.length() && name.charAt(j) == expr.charAt(from + j)) {
+                j++;
+            }
+            if (j == name.length()) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    void emit(byte op, double value) {
+        if (length == ops.length) {
+            ops = Arrays.copyOf(ops, 2 * length);
+            values = Arrays.copyOf(values, 2 * length);
+        }
+        ops[length] = op;
+        values[length] = value;
+        length++;
+        // Running stops at the first op without two operands, so this is exact
+        depth = op == NUM || op == VAR ? depth + 1 : Math.max(0, depth - 1);
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    static byte[] push(byte[] stack, int size, byte op) {
+        if (size == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * size);
+        }
+        stack[size] = op;
+        return stack;
+    }
+}
@@ -0,0 +1,226 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ *  The segregation model without any graphics (used by Neighbours and Headless).
+ *
+ *  Holds the world and everything needed to move from one tick to the
+ *  next: the threshold, the random generator, the empty cells and
+ *  (for Scan.INCREMENTAL) the neighbour counts.
+ *
+ *  The neighbourhood is the 8 cells around (radius 1) clipped at the
+ *  edges, except with Scan.AREA, which takes any radius and can wrap
+ *  around the edges (torus).
+ */
+public class Simulation {
+
+    // How the unsatisfied actors are found each tick
+    enum Scan {
+        INCREMENTAL,   // Kept up to date by the moves (NeighbourCounts)
+        PARALLEL,      // Full rescan of all cells, bands of rows in parallel
+        AREA,          // Full rescan with summed-area tables, any radius or torus (AreaScan)
+        BITBOARD       // Full rescan, 64 cells per long operation (BitboardScan)
+    }
+
+    final Grid world;
+    double threshold;       // These two change only with reset
+    Random rand;
+    final Scan scan;
+    final int radius;
+    final boolean torus;
+
+    NeighbourCounts counts;
+    AreaScan area;
+    BitboardScan bits;
+    final FreeSlots free;
+    int[] unsatisfied = new int[16];   // Reused each tick, flat indices (row * size + col)
+    int[] targets = new int[16];       // Where unsatisfied[i] moved to, for i < lastMoves
+
+    long tick;              // Number of ticks done
+    int lastUnsatisfied;    // Unsatisfied actors found in last tick
+    int lastMoves;          // Moves done in last tick
+    TickStats stats = new TickStats();
+
+    public Simulation(double[] dist, int nLocations, double threshold, long seed, Scan scan) {
+        this(Grid.create((int) Math.sqrt(nLocations)), dist, threshold, new Random(seed), scan);
+    }
+
+    // Populates the given (empty) grid
+    public Simulation(Grid world, double[] dist, double threshold, Random rand, Scan scan) {
+        this(createWorld(dist, world, rand), threshold, rand, scan);
+    }
+
+    // Continues with an already populated world
+    public Simulation(Grid world, double threshold, Random rand, Scan scan) {
+        this(world, threshold, rand, scan, 1, false);
+    }
+
+    // As above with another neighbourhood, only for Scan.AREA
+    public Simulation(Grid world, double threshold, Random rand, Scan scan, int radius, boolean torus) {
+        if (scan != Scan.AREA && (radius != 1 || torus)) {
+            throw new IllegalArgumentException("Radius and torus need scan AREA");
+        }
+        this.world = world;
+        this.threshold = threshold;
+        this.rand = rand;
+        this.scan = scan;
+        this.radius = radius;
+        this.torus = torus;
+        this.free = new FreeSlots(world);
+        if (scan == Scan.INCREMENTAL) {
+            counts = new NeighbourCounts(world, threshold);
+        } else if (scan == Scan.AREA) {
+            area = new AreaScan(world, radius, torus);
+        } else if (scan == Scan.BITBOARD) {
+            bits = new BitboardScan(world);
+        }
+    }
+
+    // Start again on the same grid, as new Simulation(world, dist, threshold, rand, scan)
+    // would, but keeping the empty cells, counts and tables (no new arrays for a world
+    // of the same kind). For runs after runs, as in Sweep.
+    public void reset(double[] dist, double threshold, Random rand) {
+        createWorld(dist, world, rand);
+        this.threshold = threshold;
+        this.rand = rand;
+        free.reset(world);
+        if (counts != null) {
+            counts.reset(threshold);
+        } else if (area != null) {
+            area.worldChanged();
+        }
+        tick = 0;
+        lastUnsatisfied = 0;
+        lastMoves = 0;
+        stats = new TickStats();
+    }
+
+    // Move all unsatisfied actors, returns number of moves
+    public int tick() {
+        stats.beginScan();
+        int n;
+        if (scan == Scan.PARALLEL) {
+            unsatisfied = ParallelScan.unsatisfied(world, threshold, ForkJoinPool.commonPool());
+            n = unsatisfied.length;
+        } else if (scan == Scan.AREA) {
+            unsatisfied = area.unsatisfied(threshold, ForkJoinPool.commonPool());
+            n = unsatisfied.length;
+        } else if (scan == Scan.BITBOARD) {
+            unsatisfied = bits.unsatisfied(threshold, ForkJoinPool.commonPool());
+            n = unsatisfied.length;
+        } else {
+            if (unsatisfied.length < counts.unsatisfiedCount()) {
+                unsatisfied = new int[Math.max(counts.unsatisfiedCount(), 2 * unsatisfied.length)];
+            }
+            n = counts.unsatisfied(unsatisfied);
+        }
+        lastUnsatisfied = n;
+        stats.scanned(tick + 1, scan, scan == Scan.INCREMENTAL ? 0 : world.cells(), n);
+
+        if (targets.length < Math.min(n, free.size())) {
+            targets = new int[Math.max(n, 2 * targets.length)];
+        }
+        lastMoves = moveActors(world, unsatisfied, n, free, counts, rand, targets);
+        if (area != null && lastMoves > 0) {
+            area.worldChanged();
+        }
+        tick++;
+        stats.moved(tick, lastMoves, free.size());
+        return lastMoves;
+    }
+
+    // Mean share of same colour neighbours, over actors with any neighbours
+    public double segregation() {
+        if (counts != null) {
+            return counts.segregation();
+        }
+        if (area != null) {
+            return area.segregation(ForkJoinPool.commonPool());
+        }
+        int size = world.size();
+        double sum = 0;
+        long actors = 0;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                byte actor = world.get(row, col);
+                if (actor == Grid.NONE) {
+                    continue;
+                }
+                int same = 0, occupied = 0;
+                for (int r = Math.max(0, row - 1); r <= Math.min(size - 1, row + 1); r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++) {
+                        byte neighbour = world.get(r, c);
+                        if ((r != row || c != col) && neighbour != Grid.NONE) {
+                            occupied++;
+                            if (neighbour == actor) {
+                                same++;
+                            }
+                        }
+                    }
+                }
+                if (occupied > 0) {
+                    sum += same / (double) occupied;
+                    actors++;
+                }
+            }
+        }
+        return actors == 0 ? 0 : sum / actors;
+    }
+
+    // ---------- Logic used by both Simulation and Neighbours -------
+
+    // Fill the (empty) grid and shuffle it in place, no list of all actors needed
+    static Grid createWorld(double[] dist, Grid world, Random rand) {
+        int nLocations = world.cells();
+        int nRedDots = (int) (dist[0] * nLocations);
+        int nBlueDots = (int) (dist[1] * nLocations);
+
+        int index = 0;
+        for (int i = 0; i < nRedDots; i++) {
+            world.set(index++, Grid.RED);
+        }
+        for (int i = 0; i < nBlueDots; i++) {
+            world.set(index++, Grid.BLUE);
+        }
+        while (index < nLocations) {
+            world.set(index++, Grid.NONE);
+        }
+
+        // Fisher-Yates
+        for (int i = nLocations - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            byte tmp = world.get(i);
+            world.set(i, world.get(j));
+            world.set(j, tmp);
+        }
+        return world;
+    }
+
+    // Move the first n unsatisfied actors to random empty cells, returns number of moves.
+    // Cells emptied by the moves are free from the next tick.
+    // If counts is given the moves are done through it to keep it up to date.
+    // If targets is given the new locations are stored in it (for rendering)
+    static int moveActors(Grid world, int[] unsatisfied, int n, FreeSlots free,
+                          NeighbourCounts counts, Random rand, int[] targets) {
+        int moved = 0;
+        for (int i = 0; i < n && !free.isEmpty(); i++) {
+            int oldPosition = unsatisfied[i];
+            int newPosition = free.take(rand);
+
+            if (counts != null) {
+                counts.move(oldPosition, newPosition);
+            } else {
+                world.set(newPosition, world.get(oldPosition));
+                world.set(oldPosition, Grid.NONE);
+            }
+            if (targets != null) {
+                targets[moved] = newPosition;
+            }
+            moved++;
+        }
+        for (int i = 0; i < moved; i++) {
+            free.add(unsatisfied[i]);
+        }
+        return moved;
+    }
+}
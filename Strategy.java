@@ -0,0 +1,64 @@
+import java.util.random.RandomGenerator;
+
+/*
+ *  How a (computer) Pig player decides: roll again or hold ("r" or "n"
+ *  in Pig.program()). Used by PigSim.
+ *
+ *  totalPts and roundPts are the player's own points, opponents are the
+ *  other players' total points (in turn order, starting with the next).
+ *  rng is for strategies that decide by chance.
+ *
+ *  Strategies are called by many threads at once, so they must not
+ *  keep state of their own.
+ */
+interface Strategy {
+
+    boolean roll(int totalPts, int roundPts, int[] opponents, RandomGenerator rng);
+
+    // Roll until the round has n points (the usual "hold at 20")
+    static Strategy holdAt(int n) {
+        return (totalPts, roundPts, opponents, rng) -> roundPts < n;
+    }
+
+    // Roll with probability p
+    static Strategy random(double p) {
+        return (totalPts, roundPts, opponents, rng) -> rng.nextDouble() < p;
+    }
+
+    // Close to optimal ("keep pace, end race" by Neller and Presser): when
+    // someone is 29 points or less from winPts keep rolling, else hold at
+    // 21 plus 1/8 of how much behind the leading opponent
+    static Strategy optimalish(int winPts) {
+        return (totalPts, roundPts, opponents, rng) -> {
+            int best = 0;
+            for (int p : opponents) {
+                best = Math.max(best, p);
+            }
+            if (best >= winPts - 29 || totalPts >= winPts - 29) {
+                return true;
+            }
+            return roundPts < 21 + (best - totalPts) / 8;
+        };
+    }
+
+    // "hold20", "hold:25", "random", "random:0.7", "optimalish", "optimal"
+    static Strategy named(String name, int winPts) {
+        int colon = name.indexOf(':');
+        String kind = colon < 0 ? name : name.substring(0, colon);
+        String arg = colon < 0 ? "" : name.substring(colon + 1);
+        switch (kind) {
+            case "hold":
+                return holdAt(arg.isEmpty() ? 20 : Integer.parseInt(arg));
+            case "hold20":
+                return holdAt(20);
+            case "random":
+                return random(arg.isEmpty() ? 0.5 : Double.parseDouble(arg));
+            case "optimalish":
+                return optimalish(winPts);
+            case "optimal":
+                return OptimalStrategy.forWinPts(winPts);
+            default:
+                throw new IllegalArgumentException("Unknown strategy: " + name);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package calc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ *  Evaluates a file with one expression per line, writes one result per line.
+ *
+ *  The input is memory mapped a big region at a time and the expressions
+ *  are compiled straight from the bytes (by Rpn, through ByteChars), so
+ *  there is no String per line. Results are collected in a direct buffer
+ *  and written to the output channel when it is full.
+ *
+ *  With threads > 1 each region is split at line ends into one slice per
+ *  thread. The slices are written in order, so the output lines are in
+ *  the same order as the input.
+ *
+ *  Lines are read as ASCII. An empty line gives NaN (as Calculator.eval),
+ *  a bad line gives "error: " and the message.
+ *
+ *  Usage:
+ *    java calc.StreamEval input.txt output.txt [threads]
+ */
+public class StreamEval {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        long start = System.nanoTime();
+        long lines = new StreamEval(threads).run(Paths.get(args[0]), Paths.get(args[1]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d lines in %.2f s (%.0f lines/s)%n", lines, seconds, lines / seconds);
+    }
+
+    static final int REGION = 1 << 26;        // Bytes mapped at a time
+    static final int OUT_BUFFER = 1 << 20;
+
+    final int threads;
+    final ExecutorService pool;
+
+    public StreamEval(int threads) {
+        this.threads = threads;
+        this.pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    }
+
+    // Returns number of lines
+    public long run(Path input, Path output) throws IOException, InterruptedException {
+        try (FileChannel in = FileChannel.open(input, READ);
+             FileChannel out = FileChannel.open(output, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long pos = 0;
+            long lines = 0;
+            List<Slice> slices = new ArrayList<>();
+            for (int i = 0; i < Math.max(1, threads); i++) {
+                slices.add(new Slice(threads > 1 ? null : out));
+            }
+            int region = REGION;
+            while (pos < size) {
+                int length = (int) Math.min(region, size - pos);
+                MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                int end = length;
+                if (pos + length < size) {
+                    // Stop after the last complete line
+                    end = lastLineEnd(buf, length);
+                    if (end < 0) {
+                        region *= 2;   // A line longer than the region
+                        continue;
+                    }
+                }
+                lines += evalRegion(buf, end, slices, out);
+                pos += end;
+            }
+            for (Slice slice : slices) {
+                slice.flush(out);
+            }
+            return lines;
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // Index after the last '\n' in buf[0, length), -1 if none
+    static int lastLineEnd(ByteBuffer buf, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buf.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    long evalRegion(ByteBuffer buf, int end, List<Slice> slices, FileChannel out)
+            throws IOException, InterruptedException {
+        if (pool == null) {
+            return slices.get(0).lines(buf, 0, end);
+        }
+        // One slice per thread, split at line ends
+        List<Future<Long>> results = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; i < slices.size(); i++) {
+            int to = i == slices.size() - 1 ? end : Math.max(from, Math.min(end, (int) ((long) end * (i + 1) / slices.size())));
+            while (to < end && to > 0 && buf.get(to - 1) != '\n') {
+                to++;
+            }
+            Slice slice = slices.get(i);
+            int sliceFrom = from;
+            int sliceTo = to;
+            results.add(pool.submit(() -> slice.lines(buf.duplicate(), sliceFrom, sliceTo)));
+            from = to;
+        }
+        long lines = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                lines += results.get(i).get();
+            } catch (java.util.concurrent.ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            slices.get(i).flush(out);
+        }
+        return lines;
+    }
+
+    // ---------- Evaluating lines -----------------------
+
+    // The lines of one thread, with its own Rpn and output buffer
+    static class Slice {
+        final Rpn rpn = new Rpn();
+        final ByteChars chars = new ByteChars();
+        final FileChannel direct;    // Write here when full, or grow if null
+        ByteBuffer out = ByteBuffer.allocateDirect(OUT_BUFFER);
+
+        Slice(FileChannel direct) {
+            this.direct = direct;
+        }
+
+        long lines(ByteBuffer buf, int from, int to) throws IOException {
+            chars.buf = buf;
+            long lines = 0;
+            int start = from;
+            while (start < to) {
+                int end = start;
+                while (end < to && buf.get(end) != '\n') {
+                    end++;
+                }
+                int next = end + 1;
+                if (end > start && buf.get(end - 1) == '\r') {
+                    end--;
+                }
+                line(start, end);
+                lines++;
+                start = next;
+            }
+            return lines;
+        }
+
+        void line(int from, int to) throws IOException {
+            if (from == to) {
+                write("NaN\n");
+                return;
+            }
+            try {
+                rpn.compile(chars, from, to);
+                writeDouble(rpn.run());
+            } catch (RuntimeException e) {
+                write("error: ");
+                write(e.getMessage());
+            }
+            put((byte) '\n');
+        }
+
+        // Same text as Double.toString(), without a String for the common cases
+        void writeDouble(double d) throws IOException {
+            if (d == Math.rint(d) && Math.abs(d) < 1e7 && !(d == 0 && 1 / d < 0)) {
+                long v = (long) d;
+                if (v < 0) {
+                    put((byte) '-');
+                    v = -v;
+                }
+                writeLong(v);
+                put((byte) '.');
+                put((byte) '0');
+            } else {
+                write(Double.toString(d));
+            }
+        }
+
+        void writeLong(long v) throws IOException {
+            if (v >= 10) {
+                writeLong(v / 10);
+            }
+            put((byte) ('0' + v % 10));
+        }
+
+        void write(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                put((byte) s.charAt(i));
+            }
+        }
+
+        void put(byte b) throws IOException {
+            if (!out.hasRemaining()) {
+                if (direct != null) {
+                    flush(direct);
+                } else {
+                    ByteBuffer bigger = ByteBuffer.allocateDirect(2 * out.capacity());
+                    out.flip();
+                    bigger.put(out);
+                    out = bigger;
+                }
+            }
+            out.put(b);
+        }
+
+        void flush(FileChannel channel) throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+    }
+
+    // The bytes of a buffer seen as chars (ASCII), indices are buffer positions
+    static class ByteChars implements CharSequence {
+        ByteBuffer buf;
+
+        @Override
+        public int length() {
+            return buf.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buf.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder sb = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                sb.append(charAt(i));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.System.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ *  Runs the segregation model for every combination of thresholds,
+ *  distributions and seeds, on all cores at once.
+ *
+ *  Each worker thread takes the next run from a shared counter and keeps
+ *  one Simulation for all its runs (Simulation.reset fills the same grid,
+ *  empty cells and neighbour counts again, no new arrays).
+ *  The number of workers is limited by the cores and by how many worlds
+ *  fit in the heap. The results are grouped by (threshold, distribution)
+ *  into one table, in the same order as the parameter grid.
+ *
+ *  With checkpoint=dir a stopped or crashed sweep can be started again
+ *  with the same parameters and goes on where it was: each finished run
+ *  is added to dir/done.csv (after a first line with the parameters, a
+ *  sweep with other ones is refused), and a run on the go is saved every 'every'
+ *  ticks to dir/run-<number>.ckpt (see Checkpoint) and continues from
+ *  there. The time of a continued run is only that of its last part.
+ *
+ *  Usage (all optional):
+ *    java Sweep thresholds=0.3,0.5,0.7 dists=0.25:0.25:0.5,0.4:0.4:0.2
+ *               seeds=5 seed=42 n=10000 ticks=1000 plateau=100 threads=8 out=sweep.csv
+ *               checkpoint=sweep.ckpt every=1000
+ */
+public class Sweep {
+
+    public static void main(String[] args) throws Exception {
+        new Sweep().program(args);
+    }
+
+    double[] thresholds = {0.3, 0.5, 0.7};
+    List<double[]> dists = List.of(new double[]{0.25, 0.25, 0.50});
+    int seeds = 5;
+    long baseSeed = 42;
+    int nLocations = 10_000;
+    long maxTicks = 1_000;
+    long plateau = 100;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String outFile = "sweep.csv";
+    String checkpointDir;    // null for no checkpoints
+    long every = 1000;
+
+    // One simulation in the sweep
+    static class Run {
+        double threshold;
+        double[] dist;
+        long seed;
+        // Results
+        boolean done;
+        long ticks;
+        String stop;
+        int unsatisfied;
+        double segregation;
+        long nanos;
+    }
+
+    void program(String[] args) throws Exception {
+        readArgs(args);
+        List<Run> runs = new ArrayList<>();
+        for (double threshold : thresholds) {
+            for (double[] dist : dists) {
+                for (int k = 0; k < seeds; k++) {
+                    Run run = new Run();
+                    run.threshold = threshold;
+                    run.dist = dist;
+                    run.seed = baseSeed + k;   // Same seeds for every combination
+                    runs.add(run);
+                }
+            }
+        }
+        if (checkpointDir != null) {
+            Files.createDirectories(Paths.get(checkpointDir));
+            int done = readDone(runs);
+            if (done > 0) {
+                out.println(done + " runs already done");
+            }
+        }
+        int workers = workers();
+        out.println("Running " + runs.size() + " simulations on " + workers + " threads");
+        long start = nanoTime();
+        runAll(runs, workers);
+        out.printf(Locale.ROOT, "Done in %.1f s%n", (nanoTime() - start) / 1e9);
+        writeTable(runs);
+    }
+
+    // Cores, but no more worlds than fit in (most of) the heap
+    int workers() {
+        long cells = (long) nLocations;
+        // Grid + NeighbourCounts (2 counts and a slot per cell) + free slots and buffers
+        long bytesPerRun = cells * (1 + 2 + 4 + 4 + 4);
+        long fit = Math.max(1, (long) (0.7 * Runtime.getRuntime().maxMemory() / bytesPerRun));
+        return (int) Math.min(threads, fit);
+    }
+
+    void runAll(List<Run> runs, int workers) throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        List<Thread> pool = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int w = 0; w < workers; w++) {
+            Thread t = new Thread(() -> {
+                Headless runner = new Headless();
+                runner.maxTicks = maxTicks;
+                runner.plateau = plateau;
+                Simulation reused = null;   // By all runs on this thread, not those from a checkpoint
+                try {
+                    for (int i = next.getAndIncrement(); i < runs.size(); i = next.getAndIncrement()) {
+                        Run run = runs.get(i);
+                        if (run.done) {
+                            continue;
+                        }
+                        long start = nanoTime();
+                        Path saved = checkpointDir == null ? null : Paths.get(checkpointDir, "run-" + i + ".ckpt");
+                        Simulation sim;
+                        if (saved != null && Files.exists(saved)) {
+                            sim = Checkpoint.load(saved);
+                        } else if (reused == null) {
+                            reused = new Simulation(Grid.create((int) Math.sqrt(nLocations)), run.dist,
+                                    run.threshold, new Random(run.seed), Simulation.Scan.INCREMENTAL);
+                            sim = reused;
+                        } else {
+                            reused.reset(run.dist, run.threshold, new Random(run.seed));
+                            sim = reused;
+                        }
+                        runner.checkpoints = saved == null ? null : new Checkpoint.Periodic(saved, every);
+                        try {
+                            run.stop = runner.run(sim, Headless.NO_METRICS);
+                        } finally {
+                            if (runner.checkpoints != null) {
+                                runner.checkpoints.stop();
+                            }
+                        }
+                        run.nanos = nanoTime() - start;
+                        run.ticks = sim.tick;
+                        run.unsatisfied = sim.lastUnsatisfied;
+                        run.segregation = sim.segregation();
+                        run.done = true;
+                        if (saved != null) {
+                            writeDone(i, run);
+                            Files.deleteIfExists(saved);
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }, "sweep-" + w);
+            t.start();
+            pool.add(t);
+        }
+        for (Thread t : pool) {
+            t.join();
+        }
+        if (!errors.isEmpty()) {
+            throw new RuntimeException("Sweep failed", errors.get(0));
+        }
+    }
+
+    // ---------- Checkpoints -----------------------
+
+    // First line of done.csv, all parameters that change the results
+    String params() {
+        StringBuilder sb = new StringBuilder("thresholds=");
+        for (int i = 0; i < thresholds.length; i++) {
+            sb.append(i > 0 ? ":" : "").append(thresholds[i]);
+        }
+        sb.append(" dists=");
+        for (int i = 0; i < dists.size(); i++) {
+            double[] d = dists.get(i);
+            sb.append(i > 0 ? ";" : "").append(d[0]).append(':').append(d[1]).append(':').append(d[2]);
+        }
+        return sb.append(" seeds=").append(seeds).append(" seed=").append(baseSeed).append(" n=").append(nLocations)
+                .append(" ticks=").append(maxTicks).append(" plateau=").append(plateau)
+                .append(" scan=incremental").toString();
+    }
+
+    // Line in done.csv: number,threshold,seed,stop,ticks,unsatisfied,segregation,nanos
+    synchronized void writeDone(int i, Run run) throws IOException {
+        String line = String.format(Locale.ROOT, "%d,%s,%d,%s,%d,%d,%s,%d%n", i, run.threshold, run.seed,
+                run.stop, run.ticks, run.unsatisfied, run.segregation, run.nanos);
+        // On the disk before the run's checkpoint is deleted
+        Files.write(Paths.get(checkpointDir, "done.csv"), line.getBytes(StandardCharsets.UTF_8), CREATE, APPEND, DSYNC);
+    }
+
+    // Mark the runs in done.csv as done, returns how many. A new done.csv gets the parameters.
+    int readDone(List<Run> runs) throws IOException {
+        Path file = Paths.get(checkpointDir, "done.csv");
+        String[] lines = Files.exists(file)
+                ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8).split("\n", -1) : new String[1];
+        // The last piece is after the last newline, empty or a line cut short by a crash (that run is done again)
+        if (lines.length == 1) {
+            Files.write(file, (params() + "\n").getBytes(StandardCharsets.UTF_8), CREATE, TRUNCATE_EXISTING, WRITE, DSYNC);
+            return 0;
+        }
+        if (!lines[0].equals(params())) {
+            throw new IllegalArgumentException("Checkpoint from another sweep in " + checkpointDir
+                    + ": " + lines[0] + ", now " + params());
+        }
+        int done = 0;
+        for (String line : Arrays.copyOfRange(lines, 1, lines.length - 1)) {
+            String[] f = line.split(",");
+            int i = Integer.parseInt(f[0]);
+            if (i >= runs.size() || runs.get(i).threshold != Double.parseDouble(f[1])
+                    || runs.get(i).seed != Long.parseLong(f[2])) {
+                throw new IllegalArgumentException("Checkpoint from another sweep: " + checkpointDir);
+            }
+            Run run = runs.get(i);
+            run.stop = f[3];
+            run.ticks = Long.parseLong(f[4]);
+            run.unsatisfied = Integer.parseInt(f[5]);
+            run.segregation = Double.parseDouble(f[6]);
+            run.nanos = Long.parseLong(f[7]);
+            if (!run.done) {
+                run.done = true;
+                done++;
+            }
+        }
+        return done;
+    }
+
+    // ---------- Output -----------------------
+
+    // One row per (threshold, dist): mean and standard deviation over the seeds
+    void writeTable(List<Run> runs) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(outFile)))) {
+            pw.println("threshold,red,blue,none,runs,segregation_mean,segregation_sd,"
+                    + "ticks_mean,converged,seconds_mean");
+            for (int i = 0; i < runs.size(); i += seeds) {
+                Run first = runs.get(i);
+                double sum = 0, sumSq = 0, ticks = 0, seconds = 0;
+                int converged = 0;
+                for (Run run : runs.subList(i, i + seeds)) {
+                    sum += run.segregation;
+                    sumSq += run.segregation * run.segregation;
+                    ticks += run.ticks;
+                    seconds += run.nanos / 1e9;
+                    if (run.unsatisfied == 0) {
+                        converged++;
+                    }
+                }
+                double mean = sum / seeds;
+                double sd = seeds > 1 ? Math.sqrt(Math.max(0, (sumSq - seeds * mean * mean) / (seeds - 1))) : 0;
+                pw.printf(Locale.ROOT, "%s,%s,%s,%s,%d,%.6f,%.6f,%.1f,%d,%.4f%n",
+                        first.threshold, first.dist[0], first.dist[1], first.dist[2], seeds,
+                        mean, sd, ticks / seeds, converged, seconds / seeds);
+            }
+        }
+        out.println("Results in " + outFile);
+    }
+
+    void readArgs(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "thresholds":
+                    thresholds = Arrays.stream(value.split(",")).mapToDouble(Double::parseDouble).toArray();
+                    break;
+                case "dists":
+                    dists = new ArrayList<>();
+                    for (String dist : value.split(",")) {
+                        dists.add(Arrays.stream(dist.split(":")).mapToDouble(Double::parseDouble).toArray());
+                    }
+                    break;
+                case "seeds":
+                    seeds = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    baseSeed = Long.parseLong(value);
+                    break;
+                case "n":
+                    nLocations = Integer.parseInt(value);
+                    break;
+                case "ticks":
+                    maxTicks = Long.parseLong(value);
+                    break;
+                case "plateau":
+                    plateau = Long.parseLong(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "out":
+                    outFile = value;
+                    break;
+                case "checkpoint":
+                    checkpointDir = value;
+                    break;
+                case "every":
+                    every = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/*
+ *  Where the ticks of a Simulation spend their time.
+ *
+ *  The phases of a tick (finding the unsatisfied actors, moving them and,
+ *  in Neighbours, rendering) are counted and timed here, and each is also
+ *  a JDK Flight Recorder event:
+ *    java -XX:StartFlightRecording=filename=ticks.jfr Headless ...
+ *    jfr print --categories Neighbours ticks.jfr
+ *  Without a recording no event objects are made and the counters are a
+ *  few adds per tick (no garbage), so they are always on.
+ *
+ *  Only the tick thread writes the counters. Read them on that thread
+ *  (as Headless does) or expect values a tick old.
+ */
+public class TickStats {
+
+    long ticks;
+    long cellsScanned;      // Full scans look at every cell, INCREMENTAL at none
+    long unsatisfied;       // Found, summed over all ticks
+    long moves;
+    int vacancies;          // Empty cells after the last tick
+    long scanNanos;
+    long moveNanos;
+    long renderNanos;
+    long allocatedBytes;    // By the tick thread (not by pool threads) while ticking
+
+    // The phase going on, events only while recording
+    long phaseStart;
+    long allocatedAtStart;
+    ScanEvent scanEvent;
+    MoveEvent moveEvent;
+    RenderEvent renderEvent;
+
+    void beginScan() {
+        allocatedAtStart = allocatedBytes();
+        if (SCAN.isEnabled()) {
+            scanEvent = new ScanEvent();
+            scanEvent.begin();
+        }
+        phaseStart = System.nanoTime();
+    }
+
+    // Ends the scan and begins the moves
+    void scanned(long tick, Simulation.Scan scan, long cells, int found) {
+        long now = System.nanoTime();
+        scanNanos += now - phaseStart;
+        cellsScanned += cells;
+        unsatisfied += found;
+        if (scanEvent != null) {
+            scanEvent.tick = tick;
+            scanEvent.scan = scan.name();
+            scanEvent.cells = cells;
+            scanEvent.unsatisfied = found;
+            scanEvent.commit();
+            scanEvent = null;
+        }
+        if (MOVE.isEnabled()) {
+            moveEvent = new MoveEvent();
+            moveEvent.begin();
+        }
+        phaseStart = now;
+    }
+
+    void moved(long tick, int moved, int free) {
+        long allocated = allocatedBytes() - allocatedAtStart;
+        ticks++;
+        moveNanos += System.nanoTime() - phaseStart;
+        moves += moved;
+        vacancies = free;
+        allocatedBytes += allocated;
+        if (moveEvent != null) {
+            moveEvent.tick = tick;
+            moveEvent.moves = moved;
+            moveEvent.vacancies = free;
+            moveEvent.allocated = allocated;
+            moveEvent.commit();
+            moveEvent = null;
+        }
+    }
+
+    void beginRender() {
+        if (RENDER.isEnabled()) {
+            renderEvent = new RenderEvent();
+            renderEvent.begin();
+        }
+        phaseStart = System.nanoTime();
+    }
+
+    void rendered(long tick, int cells) {
+        renderNanos += System.nanoTime() - phaseStart;
+        if (renderEvent != null) {
+            renderEvent.tick = tick;
+            renderEvent.cells = cells;
+            renderEvent.commit();
+            renderEvent = null;
+        }
+    }
+
+    // Averages per tick, for a log line
+    public String line() {
+        double n = Math.max(1, ticks);
+        return String.format(Locale.ROOT,
+                "ticks=%d scan=%.3f ms move=%.3f ms render=%.3f ms cells=%.0f unsatisfied=%.0f moves=%.0f vacancies=%d alloc=%.0f B",
+                ticks, scanNanos / n / 1e6, moveNanos / n / 1e6, renderNanos / n / 1e6,
+                cellsScanned / n, unsatisfied / n, moves / n, vacancies, allocatedBytes / n);
+    }
+
+    // Looked up once, ManagementFactory allocates on every call
+    static final com.sun.management.ThreadMXBean THREADS =
+            ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+
+    // Bytes allocated by this thread so far, 0 if the JVM can't tell
+    static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    // ---------- JFR events -----------------------
+
+    // Asked if their kind is being recorded, so events are only built then (no garbage otherwise)
+    static final ScanEvent SCAN = new ScanEvent();
+    static final MoveEvent MOVE = new MoveEvent();
+    static final RenderEvent RENDER = new RenderEvent();
+
+    @Name("neighbours.Scan")
+    @Label("Scan")
+    @Category("Neighbours")
+    static class ScanEvent extends Event {
+        @Label("Tick")
+        long tick;
+        @Label("Scan")
+        String scan;
+        @Label("Cells Scanned")
+        long cells;
+        @Label("Unsatisfied")
+        int unsatisfied;
+    }
+
+    @Name("neighbours.Move")
+    @Label("Move")
+    @Category("Neighbours")
+    static class MoveEvent extends Event {
+        @Label("Tick")
+        long tick;
+        @Label("Moves")
+        int moves;
+        @Label("Vacancies")
+        int vacancies;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    @Name("neighbours.Render")
+    @Label("Render")
+    @Category("Neighbours")
+    static class RenderEvent extends Event {
+        @Label("Tick")
+        long tick;
+        @Label("Cells Drawn")
+        int cells;
+    }
+}
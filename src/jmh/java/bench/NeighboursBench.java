@@ -0,0 +1,99 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/*
+ *  JMH benchmarks for the hot paths of Neighbours, the work is in
+ *  NeighboursBenchmarks. Results are returned, so JMH consumes them.
+ *
+ *  moveActors gets a fresh world, unsatisfied list and empty cells for
+ *  every call (Level.Invocation, not measured), else after the first
+ *  call it would move empty cells onto empty cells.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NeighboursBench {
+
+    @State(Scope.Benchmark)
+    public static class World {
+        @Param({"100", "1000", "3000"})
+        public int size;
+        Supplier<?> scan;
+        Supplier<?> parallelScan;
+        Supplier<?> bitboardScan;
+
+        @Setup
+        public void setup() {
+            Object workload = Workloads.create("NeighboursBenchmarks", size);
+            scan = Workloads.op(workload, "scan");
+            parallelScan = Workloads.op(workload, "parallelScan");
+            bitboardScan = Workloads.op(workload, "bitboardScan");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Ticks {
+        @Param({"100", "1000", "3000"})
+        public int size;
+        @Param({"INCREMENTAL", "PARALLEL", "AREA", "BITBOARD"})
+        public String scan;
+        IntSupplier tick;
+
+        @Setup
+        public void setup() {
+            tick = Workloads.op(Workloads.create("NeighboursBenchmarks", size), "updateWorld", scan);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Moves {
+        @Param({"100", "1000", "3000"})
+        public int size;
+        IntSupplier moveActors;
+        Runnable reset;
+
+        @Setup
+        public void setup() {
+            Object workload = Workloads.create("NeighboursBenchmarks", size);
+            moveActors = Workloads.op(workload, "moveActors");
+            reset = Workloads.op(workload, "resetMoves");
+        }
+
+        @Setup(Level.Invocation)
+        public void reset() {
+            reset.run();
+        }
+    }
+
+    @Benchmark
+    public Object scan(World w) {
+        return w.scan.get();
+    }
+
+    @Benchmark
+    public Object parallelScan(World w) {
+        return w.parallelScan.get();
+    }
+
+    @Benchmark
+    public Object bitboardScan(World w) {
+        return w.bitboardScan.get();
+    }
+
+    @Benchmark
+    public int updateWorld(Ticks t) {
+        return t.tick.getAsInt();
+    }
+
+    @Benchmark
+    public int moveActors(Moves m) {
+        return m.moveActors.getAsInt();
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/*
+ *  JMH benchmarks for Pig's dice and games, the work is in PigBenchmarks.
+ *  A rolls op is 1000 rolls.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class PigBench {
+
+    IntSupplier rollDice;
+    IntSupplier nextInt;
+    IntSupplier diceSource;
+    IntSupplier game;
+
+    @Setup
+    public void setup() {
+        Object workload = Workloads.create("PigBenchmarks");
+        rollDice = Workloads.op(workload, "rollDice");
+        nextInt = Workloads.op(workload, "nextInt");
+        diceSource = Workloads.op(workload, "diceSource");
+        game = Workloads.op(workload, "game");
+    }
+
+    @Benchmark
+    public int rollsRollDice() {
+        return rollDice.getAsInt();
+    }
+
+    @Benchmark
+    public int rollsNextInt() {
+        return nextInt.getAsInt();
+    }
+
+    @Benchmark
+    public int rollsDiceSource() {
+        return diceSource.getAsInt();
+    }
+
+    @Benchmark
+    public int game() {
+        return game.getAsInt();
+    }
+}
@@ -0,0 +1,45 @@
+package bench;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/*
+ *  Gets the ops of the workload classes in the default package
+ *  (NeighboursBenchmarks, PigBenchmarks), which can't be named from here.
+ *  Only the setup uses reflection, an op is a java.util.function object
+ *  the benchmark calls directly.
+ */
+final class Workloads {
+
+    private Workloads() {
+    }
+
+    // new className(args), by the number of arguments
+    static Object create(String className, Object... args) {
+        try {
+            for (Constructor<?> c : Class.forName(className).getConstructors()) {
+                if (c.getParameterCount() == args.length) {
+                    return c.newInstance(args);
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't create " + className, e);
+        }
+        throw new IllegalArgumentException("No constructor: " + className);
+    }
+
+    // The op workload.name(args) returns
+    @SuppressWarnings("unchecked")
+    static <T> T op(Object workload, String name, Object... args) {
+        try {
+            for (Method m : workload.getClass().getMethods()) {
+                if (m.getName().equals(name) && m.getParameterCount() == args.length) {
+                    return (T) m.invoke(workload, args);
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't get " + name, e);
+        }
+        throw new IllegalArgumentException("No op: " + name);
+    }
+}
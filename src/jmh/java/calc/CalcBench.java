@@ -0,0 +1,133 @@
+package calc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/*
+ *  JMH benchmarks for the Calculator, the work is in CalcBenchmarks.
+ *  In package calc, as Calculator is not public.
+ *
+ *  The threads benchmarks run on all cores at once on one shared
+ *  CalcBenchmarks, each thread from its own place in the texts. Run
+ *  them again with -t 1 to get the speedup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CalcBench {
+
+    @State(Scope.Benchmark)
+    public static class Text {
+        @Param({"10", "100", "1000"})
+        public int nTokens;
+        CalcBenchmarks calc;
+
+        @Setup
+        public void setup() {
+            calc = new CalcBenchmarks(nTokens, 1);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        final CalcBenchmarks calc = new CalcBenchmarks(10, 1);
+    }
+
+    @State(Scope.Thread)
+    public static class Own {
+        DoubleSupplier eval;
+        DoubleSupplier compiled;
+        DoubleSupplier uncached;
+
+        @Setup
+        public void setup(Shared shared) {
+            eval = shared.calc.sharedEval();
+            compiled = shared.calc.sharedCompiled();
+            uncached = shared.calc.sharedUncached();
+        }
+    }
+
+    @Benchmark
+    public Object tokenize(Text t) {
+        return t.calc.tokenize();
+    }
+
+    @Benchmark
+    public Object infix2Postfix(Text t) {
+        return t.calc.infix2Postfix();
+    }
+
+    @Benchmark
+    public double evalPostfix(Text t) {
+        return t.calc.evalPostfix();
+    }
+
+    @Benchmark
+    public double eval(Text t) {
+        return t.calc.eval();
+    }
+
+    @Benchmark
+    public double parseAndEval(Text t) {
+        return t.calc.parseAndEval();
+    }
+
+    @Benchmark
+    public double compiled(Text t) {
+        return t.calc.compiled();
+    }
+
+    @Benchmark
+    public double compiledUnfolded(Text t) {
+        return t.calc.compiledUnfolded();
+    }
+
+    @Benchmark
+    public double rpnRun(Text t) {
+        return t.calc.rpnRun();
+    }
+
+    @Benchmark
+    public double rpn(Text t) {
+        return t.calc.rpn();
+    }
+
+    // CalcBenchmarks.ROWS rows
+
+    @Benchmark
+    public Object rowByRow(Shared s) {
+        return s.calc.rowByRow();
+    }
+
+    @Benchmark
+    public Object columns(Shared s) {
+        return s.calc.columns(false);
+    }
+
+    @Benchmark
+    public Object columnsParallel(Shared s) {
+        return s.calc.columns(true);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public double threadsEval(Own own) {
+        return own.eval.getAsDouble();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public double threadsCompiled(Own own) {
+        return own.compiled.getAsDouble();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public double threadsUncached(Own own) {
+        return own.uncached.getAsDouble();
+    }
+}